@@ -1,42 +1,60 @@
 package cn.edu.hitsz.compiler;
 
 import cn.edu.hitsz.compiler.asm.AssemblyGenerator;
+import cn.edu.hitsz.compiler.ir.ConstantFolder;
+import cn.edu.hitsz.compiler.ir.IRBuffer;
 import cn.edu.hitsz.compiler.lexer.LexicalAnalyzer;
 import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.lexer.TokenStream;
 import cn.edu.hitsz.compiler.parser.IRGenerator;
+import cn.edu.hitsz.compiler.parser.ParseTracer;
 import cn.edu.hitsz.compiler.parser.ProductionCollector;
 import cn.edu.hitsz.compiler.parser.SemanticAnalyzer;
 import cn.edu.hitsz.compiler.parser.SyntaxAnalyzer;
 import cn.edu.hitsz.compiler.parser.table.GrammarInfo;
 import cn.edu.hitsz.compiler.parser.table.TableLoader;
+import cn.edu.hitsz.compiler.symtab.ConcurrentSymbolTable;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
+import cn.edu.hitsz.compiler.utils.EmulatorProfile;
 import cn.edu.hitsz.compiler.utils.FilePathConfig;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 import cn.edu.hitsz.compiler.utils.IREmulator;
+import cn.edu.hitsz.compiler.utils.JitEmulator;
+import cn.edu.hitsz.compiler.utils.RegisterEmulator;
 import cn.edu.hitsz.compiler.parser.table.TableGenerator;
 
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
     public static void main(String[] args) {
         // 构建符号表以供各部分使用
         TokenKind.loadTokenKinds();
-        final var symbolTable = new SymbolTable();
+        // -Dparser.dispatch=async 时各 Observer 在各自的线程上运行, 而词法分析器仍在驱动程序的线程上按需登记符号,
+        // 因此此时使用可供多个线程同时访问的符号表
+        final var asyncDispatch = "async".equals(System.getProperty("parser.dispatch"));
+        final var symbolTable = asyncDispatch ? new ConcurrentSymbolTable() : new SymbolTable();
 
-        // 词法分析
+        // 词法分析, 词法单元默认在语法分析时按需产生, 并同时输出到文件
+        // -Dlexer=run 时在语法分析之前顺序地完成词法分析, -Dlexer=parallel 时在语法分析之前并行地完成
         final var lexer = new LexicalAnalyzer(symbolTable);
         lexer.loadFile(FilePathConfig.SRC_CODE_PATH);
-        lexer.run();
-        lexer.dumpTokens(FilePathConfig.TOKEN_PATH);
-
-        final var tokens = lexer.getTokens();
-        // symbolTable.dumpTable(FilePathConfig.OLD_SYMBOL_TABLE);
-
-        var instructions = lexer.getIR();
-
-        // 读取第三方程序构造的 LR 分析表
+        final TokenStream source = switch (System.getProperty("lexer", "stream")) {
+            case "run" -> {
+                lexer.run();
+                yield lexer.getTokens().stream();
+            }
+            case "parallel" -> {
+                lexer.runParallel(ForkJoinPool.commonPool());
+                yield lexer.getTokens().stream();
+            }
+            default -> lexer.stream();
+        };
+
+        // 读取第三方程序构造的 LR 分析表, 分析表未改动时直接使用上次编译好的二进制缓存
         final var tableLoader = new TableLoader();
-        final var lrTable = tableLoader.load(FilePathConfig.LR1_TABLE_PATH);
+        final var lrTable = tableLoader.loadCompiled(FilePathConfig.LR1_TABLE_PATH, FilePathConfig.LR1_TABLE_CACHE_PATH);
 
         // 或使用框架自带部分直接从 grammar.txt 构造 LR 分析表
         // final var tableGenerator = new TableGenerator();
@@ -46,8 +64,22 @@ public class Main {
 
         // 加载 LR 分析驱动程序
         final var parser = new SyntaxAnalyzer(symbolTable);
-        parser.loadTokens(tokens);
-        parser.loadLRTable(lrTable);
+        // -Dparser.table=compressed 时改用以默认规约与行位移压缩的分析表
+        if ("compressed".equals(System.getProperty("parser.table"))) {
+            parser.loadLRTable(lrTable.compress());
+        } else {
+            parser.loadLRTable(lrTable);
+        }
+
+        // 按需开启驱动程序的跟踪: -Dparser.trace=file 记录全部查表, -Dparser.trace=ring 只在出错时输出最近的记录
+        switch (System.getProperty("parser.trace", "off")) {
+            case "file" -> parser.setTracer(ParseTracer.toFile(FilePathConfig.PARSE_TRACE_PATH));
+            case "ring" -> parser.setTracer(ParseTracer.inMemory(4096, FilePathConfig.PARSE_TRACE_PATH));
+            default -> {
+            }
+        }
+
+        parser.setAsyncDispatch(asyncDispatch);
 
         // 加入生成规约列表的 Observer
         final var productionCollector = new ProductionCollector(GrammarInfo.getBeginProduction());
@@ -62,8 +94,15 @@ public class Main {
         final var irGenerator = new IRGenerator();
         parser.registerObserver(irGenerator);
 
-        // 执行语法解析并在解析过程中依次调用各 Observer
-        parser.run();
+        // 执行语法解析并在解析过程中依次调用各 Observer, 出错时已读取的词法单元也会写出到文件
+        try (final var tokens = source.tee(FilePathConfig.TOKEN_PATH)) {
+            parser.loadTokens(tokens);
+            parser.run();
+        }
+
+        // 词法单元流已被消耗完毕, 词法分析时生成的 IR 与登记的符号表此时才完整
+        final var instructions = lexer.getIR();
+        symbolTable.dumpTable(FilePathConfig.OLD_SYMBOL_TABLE);
 
         // 各 Observer 输出结果
         productionCollector.dumpToFile(FilePathConfig.PARSER_PATH);
@@ -72,14 +111,39 @@ public class Main {
         // final var instructions = irGenerator.getIR();
         // irGenerator.dumpIR(FilePathConfig.INTERMEDIATE_CODE_PATH);
 
-        // 模拟执行 IR 并输出结果
-        final var emulator = IREmulator.load(instructions);
+        // 模拟执行 IR 并输出结果, -Demulator=map 时使用以哈希表存放变量的逐条求值方式,
+        // -Demulator=jit 时编译为字节码执行, 并输出编译与执行的用时
+        // 紧凑存放的 IR 的变量编号沿用词法分析时的变量池
+        final var buffer = IRBuffer.of(instructions, lexer.getVariables());
+        final Optional<Integer> result;
+        switch (System.getProperty("emulator", "register")) {
+            case "map" -> result = IREmulator.load(instructions).execute();
+            case "jit" -> {
+                final var jit = JitEmulator.load(buffer);
+                result = jit.execute();
+                System.out.println(jit.report());
+            }
+            default -> {
+                // -Demulator.profile=true 时同时记录各种指令与各个变量的计数
+                final var emulator = RegisterEmulator.load(buffer);
+                if (Boolean.getBoolean("emulator.profile")) {
+                    final var profile = new EmulatorProfile();
+                    result = emulator.execute(profile);
+                    profile.dumpCsv(FilePathConfig.EMULATE_PROFILE_CSV);
+                    profile.dumpJson(FilePathConfig.EMULATE_PROFILE_JSON);
+                } else {
+                    result = emulator.execute();
+                }
+            }
+        }
         FileUtils.writeFile(FilePathConfig.EMULATE_RESULT,
-                emulator.execute().map(Objects::toString).orElse("No return value"));
+                result.map(Objects::toString).orElse("No return value"));
 
-        // 由 IR 生成汇编
+        // 由 IR 生成汇编, 此前先做常量传播与折叠; 模拟执行使用未优化的 IR, 作为对照
+        // -Dir.fold=false 时不做折叠
+        final var optimized = "false".equals(System.getProperty("ir.fold")) ? buffer : ConstantFolder.fold(buffer);
         final var asmGenerator = new AssemblyGenerator();
-        asmGenerator.loadIR(instructions);
+        asmGenerator.loadIR(optimized);
         asmGenerator.run();
         asmGenerator.dump(FilePathConfig.ASSEMBLY_LANGUAGE_PATH);
     }
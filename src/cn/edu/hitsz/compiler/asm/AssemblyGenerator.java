@@ -1,9 +1,8 @@
 package cn.edu.hitsz.compiler.asm;
 
 import cn.edu.hitsz.compiler.NotImplementedException;
-import cn.edu.hitsz.compiler.ir.IRImmediate;
+import cn.edu.hitsz.compiler.ir.IRBuffer;
 import cn.edu.hitsz.compiler.ir.IRValue;
-import cn.edu.hitsz.compiler.ir.IRVariable;
 import cn.edu.hitsz.compiler.ir.Instruction;
 import cn.edu.hitsz.compiler.ir.InstructionKind;
 import cn.edu.hitsz.compiler.utils.FileUtils;
@@ -39,50 +38,55 @@ public class AssemblyGenerator {
      */
     public void loadIR(List<Instruction> originInstructions) {
         // TODO: 读入前端提供的中间代码并生成所需要的信息
-        for (var instr : originInstructions) {
+        loadIR(IRBuffer.of(originInstructions));
+    }
+
+    /**
+     * 加载紧凑存放的中间代码, 以游标遍历, 不为每条指令构造对象
+     *
+     * @param buffer 前端提供的中间代码
+     */
+    public void loadIR(IRBuffer buffer) {
+        // 虚拟寄存器编号即变量在缓冲区变量池中的编号
+        final var instr = buffer.view();
+        for (int i = 0; i < buffer.size(); i++) {
+            instr.moveTo(i);
             if (instr.getKind().equals(InstructionKind.MOV)) {
-                if (instr.getFrom() instanceof IRImmediate imm) {
-                    var asm_instr = load_imm(Integer.parseInt(instr.getResult().getName()), imm.getValue());
+                if (instr.isImmediateA()) {
+                    var asm_instr = load_imm(instr.resultId(), instr.operandA());
                     asm_instr.forEach(asmcode::add);
-                } else if (instr.getFrom() instanceof IRVariable val) {
-                    var asm_instr = mv(
-                            Integer.parseInt(instr.getResult().getName()),
-                            Integer.parseInt(val.getName()));
+                } else {
+                    var asm_instr = mv(instr.resultId(), instr.operandA());
                     asm_instr.forEach(asmcode::add);
                 }
 
             } else if (instr.getKind().equals(InstructionKind.RET)) {
-                if (instr.getReturnValue() instanceof IRVariable val) {
-                    var asm_instr = ret(Integer.parseInt(val.getName()));
+                if (!instr.isImmediateA()) {
+                    var asm_instr = ret(instr.operandA());
                     asm_instr.forEach(asmcode::add);
                 } else {
-                    throw new RuntimeException("");
+                    // 折叠后的程序直接返回常量
+                    asmcode.add(load(true, instr.operandA(), 10));
                 }
 
             } else {
-                if (instr.getLHS() instanceof IRVariable lhs &&
-                        instr.getRHS() instanceof IRVariable rhs) {
-                    String op = "";
-                    if (instr.getKind().equals(InstructionKind.MUL)) {
-                        op = "mul";
-                    } else if (instr.getKind().equals(InstructionKind.SUB)) {
-                        op = "sub";
-                    } else if (instr.getKind().equals(InstructionKind.ADD)) {
-                        op = "add";
-                    } else {
-                        throw new RuntimeException("");
-                    }
-
-                    var asm_instr = arith(Integer.parseInt(instr.getResult().getName()),
-                            Integer.parseInt(lhs.getName()),
-                            Integer.parseInt(rhs.getName()),
-                            op);
-                    asm_instr.forEach(asmcode::add);
-
+                String op = "";
+                if (instr.getKind().equals(InstructionKind.MUL)) {
+                    op = "mul";
+                } else if (instr.getKind().equals(InstructionKind.SUB)) {
+                    op = "sub";
+                } else if (instr.getKind().equals(InstructionKind.ADD)) {
+                    op = "add";
                 } else {
                     throw new RuntimeException("");
                 }
 
+                var asm_instr = arith(instr.resultId(),
+                        instr.isImmediateA(), instr.operandA(),
+                        instr.isImmediateB(), instr.operandB(),
+                        op);
+                asm_instr.forEach(asmcode::add);
+
             }
 
         }
@@ -131,12 +135,19 @@ public class AssemblyGenerator {
         return result;
     }
 
-    private List<String> arith(int ddst, int ssrc1, int ssrc2, String op) {
+    /**
+     * 将操作数载入寄存器: 立即数用 li, 变量从内存中读取
+     */
+    private String load(boolean immediate, int value, int pregid) {
+        return immediate ? "li x" + pregid + "," + value : pop(value, pregid);
+    }
+
+    private List<String> arith(int ddst, boolean imm1, int ssrc1, boolean imm2, int ssrc2, String op) {
         var result = new ArrayList();
         var pregid1 = 10;
         var pregid2 = 11;
-        result.add(pop(ssrc1, pregid1));
-        result.add(pop(ssrc2, pregid2));
+        result.add(load(imm1, ssrc1, pregid1));
+        result.add(load(imm2, ssrc2, pregid2));
         var arith_instr = op + " x" + pregid1 + ",x" + pregid1 + ",x" + pregid2;
         result.add(arith_instr);
         result.add(push(ddst, pregid1));
@@ -0,0 +1,69 @@
+package cn.edu.hitsz.compiler.ir;
+
+/**
+ * IR 上的常量传播与常量折叠
+ * <br>
+ * 按指令顺序记录每个变量当前的值: MOV 传播源操作数的值, ADD/SUB/MUL 在两个操作数的值都已知时直接求出结果,
+ * 整数运算与 {@code IREmulator} 一样按 32 位补码回绕. RET 在执行时并不结束程序, 返回值由最后一条 RET 决定.
+ * <br>
+ * IR 是没有输入也没有跳转的直线代码, 每个已赋值的变量在编译时都有确定的值, 因此传播之后只有最后一条 RET 是有用的,
+ * 其余指令的结果都不再被读取, 可以全部删去. 折叠后的程序是:
+ * <ul>
+ *     <li>{@code (RET, , c)}: 最后一条 RET 返回了已赋值的变量, 其值为 c</li>
+ *     <li>空程序: 没有 RET, 或最后一条 RET 返回了未赋值的变量, 执行结果都是没有返回值</li>
+ * </ul>
+ * 算术指令读取未赋值的变量时, 程序执行到该处会失败, 这样的程序原样返回, 以保留失败.
+ */
+public final class ConstantFolder {
+    private ConstantFolder() {
+    }
+
+    /**
+     * @param program 紧凑存放的 IR
+     * @return 折叠后的程序, 变量与原程序属于同一个变量池; 不能折叠时为原程序本身
+     */
+    public static IRBuffer fold(IRBuffer program) {
+        final var values = new int[program.variableCount()];
+        final var defined = new boolean[program.variableCount()];
+
+        var hasReturn = false;
+        var returnValue = 0;
+        for (int i = 0; i < program.size(); i++) {
+            final var kind = program.kind(i);
+            final var aDefined = program.isImmediateA(i) || defined[program.operandA(i)];
+            final var a = program.isImmediateA(i) ? program.operandA(i) : values[program.operandA(i)];
+
+            switch (kind) {
+                case MOV -> {
+                    defined[program.result(i)] = aDefined;
+                    values[program.result(i)] = a;
+                }
+                case ADD, SUB, MUL -> {
+                    final var bDefined = program.isImmediateB(i) || defined[program.operandB(i)];
+                    if (!aDefined || !bDefined) {
+                        return program;
+                    }
+
+                    final var b = program.isImmediateB(i) ? program.operandB(i) : values[program.operandB(i)];
+                    defined[program.result(i)] = true;
+                    values[program.result(i)] = switch (kind) {
+                        case ADD -> a + b;
+                        case SUB -> a - b;
+                        default -> a * b;
+                    };
+                }
+                case RET -> {
+                    hasReturn = aDefined;
+                    returnValue = a;
+                }
+                default -> throw new RuntimeException("Unknown instruction kind: " + kind);
+            }
+        }
+
+        final var folded = new IRBuffer(1, program.variables());
+        if (hasReturn) {
+            folded.append(InstructionKind.RET.ordinal() | IRBuffer.IMMEDIATE_A, -1, returnValue, 0);
+        }
+        return folded;
+    }
+}
@@ -0,0 +1,331 @@
+package cn.edu.hitsz.compiler.ir;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 紧凑存放的 IR 指令序列
+ * <br>
+ * {@link Instruction} 的每条指令都是若干对象: 指令本身, 参数列表, 以及以名字区分的 IR 变量与立即数, 遍历时需要反复跟随引用.
+ * 该类将指令序列展开为四个平行的 int 数组:
+ * <ul>
+ *     <li>opcode: 低 8 位为 {@link InstructionKind} 的序号, 其上两位分别标记操作数 A, B 是否为立即数 ({@link #IMMEDIATE_A}, {@link #IMMEDIATE_B})</li>
+ *     <li>result: 结果变量的编号, RET 指令为 -1</li>
+ *     <li>operand A, operand B: 变量编号或立即数的值, 不存在的操作数为 0</li>
+ * </ul>
+ * 变量编号即变量在缓冲区所用的 {@link IRVariablePool} 中的编号, 可以直接用作数组下标; 编号到变量对象的映射见 {@link #variable(int)}.
+ * 指令中的变量本就来自该池时不需要任何查找, 否则按名字并入该池.
+ * <br>
+ * 需要以对象形式访问指令的代码可以使用 {@link #view()} 得到的游标, 它不复制任何数据; 也可以用 {@link #asList()} 得到按需构造
+ * {@link Instruction} 的只读列表.
+ *
+ * @see InstructionView
+ */
+public final class IRBuffer {
+    public static final int KIND_MASK = 0xff;
+    public static final int IMMEDIATE_A = 1 << 8;
+    public static final int IMMEDIATE_B = 1 << 9;
+
+    private static final InstructionKind[] KINDS = InstructionKind.values();
+
+    private int[] opcodes;
+    private int[] results;
+    private int[] operandsA;
+    private int[] operandsB;
+    private int size = 0;
+
+    private final IRVariablePool variables;
+
+    public IRBuffer() {
+        this(16);
+    }
+
+    /**
+     * @param capacity 初始容量 (指令数)
+     */
+    public IRBuffer(int capacity) {
+        this(capacity, new IRVariablePool());
+    }
+
+    /**
+     * @param capacity  初始容量 (指令数)
+     * @param variables 变量编号所依据的变量池
+     */
+    public IRBuffer(int capacity, IRVariablePool variables) {
+        this.variables = variables;
+        capacity = Math.max(capacity, 1);
+        this.opcodes = new int[capacity];
+        this.results = new int[capacity];
+        this.operandsA = new int[capacity];
+        this.operandsB = new int[capacity];
+    }
+
+    /**
+     * @param instructions 指令列表
+     * @return 存放同样指令的缓冲区
+     */
+    public static IRBuffer of(List<Instruction> instructions) {
+        return of(instructions, new IRVariablePool());
+    }
+
+    /**
+     * @param instructions 指令列表
+     * @param variables    变量编号所依据的变量池, 通常是生成这些指令时所用的池
+     * @return 存放同样指令的缓冲区
+     */
+    public static IRBuffer of(List<Instruction> instructions, IRVariablePool variables) {
+        final var buffer = new IRBuffer(instructions.size(), variables);
+        for (final var instruction : instructions) {
+            buffer.add(instruction);
+        }
+        return buffer;
+    }
+
+    /**
+     * 解析 {@link Instruction#toString()} 格式的 IR 文本, 如 {@code IRGenerator#dumpIR} 输出的文件, 不构造指令对象
+     * <br>
+     * 每行一条指令, 如 {@code (SUB, $0, 3, a)} 或 {@code (RET, , $1)}; 空行被忽略, 整数操作数为立即数, 其它为变量名.
+     *
+     * @param lines IR 文本的各行
+     * @return 存放这些指令的缓冲区, 变量属于一个新的变量池
+     */
+    public static IRBuffer parse(List<String> lines) {
+        final var buffer = new IRBuffer(lines.size());
+        for (int lineNo = 0; lineNo < lines.size(); lineNo++) {
+            final var line = lines.get(lineNo).strip();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!line.startsWith("(") || !line.endsWith(")")) {
+                throw new RuntimeException("Malformed IR at line %d: %s".formatted(lineNo + 1, line));
+            }
+
+            final var fields = line.substring(1, line.length() - 1).split(",", -1);
+            final InstructionKind kind;
+            try {
+                kind = InstructionKind.valueOf(fields[0].strip());
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException("Unknown instruction kind at line %d: %s".formatted(lineNo + 1, line));
+            }
+            final var operandCount = kind.isBinary() ? 2 : 1;
+            if (fields.length != 2 + operandCount) {
+                throw new RuntimeException("Malformed IR at line %d: %s".formatted(lineNo + 1, line));
+            }
+
+            final var result = kind.isReturn() ? -1 : buffer.parseVariable(fields[1].strip());
+            var opcode = kind.ordinal();
+            var a = 0;
+            var b = 0;
+            for (int i = 0; i < operandCount; i++) {
+                final var text = fields[2 + i].strip();
+                final var immediate = isInteger(text);
+                final var value = immediate ? Integer.parseInt(text) : buffer.parseVariable(text);
+                if (i == 0) {
+                    a = value;
+                    opcode |= immediate ? IMMEDIATE_A : 0;
+                } else {
+                    b = value;
+                    opcode |= immediate ? IMMEDIATE_B : 0;
+                }
+            }
+            buffer.append(opcode, result, a, b);
+        }
+        return buffer;
+    }
+
+    /**
+     * 追加一条指令
+     *
+     * @param instruction 指令
+     */
+    public void add(Instruction instruction) {
+        final var kind = instruction.getKind();
+        final var operands = instruction.getOperands();
+        final var result = kind.isReturn() ? -1 : variableId(instruction.getResult());
+
+        var opcode = kind.ordinal();
+        var a = 0;
+        var b = 0;
+        if (!operands.isEmpty()) {
+            a = encode(operands.get(0));
+            opcode |= operands.get(0).isImmediate() ? IMMEDIATE_A : 0;
+        }
+        if (operands.size() > 1) {
+            b = encode(operands.get(1));
+            opcode |= operands.get(1).isImmediate() ? IMMEDIATE_B : 0;
+        }
+
+        append(opcode, result, a, b);
+    }
+
+    /**
+     * 以编码后的形式追加一条指令
+     *
+     * @param opcode 指令种类的序号, 按需或上 {@link #IMMEDIATE_A}, {@link #IMMEDIATE_B}
+     * @param result 结果变量的编号, RET 指令为 -1
+     * @param a      操作数 A
+     * @param b      操作数 B
+     */
+    public void append(int opcode, int result, int a, int b) {
+        if (size == opcodes.length) {
+            final var capacity = size * 2;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            results = Arrays.copyOf(results, capacity);
+            operandsA = Arrays.copyOf(operandsA, capacity);
+            operandsB = Arrays.copyOf(operandsB, capacity);
+        }
+
+        opcodes[size] = opcode;
+        results[size] = result;
+        operandsA[size] = a;
+        operandsB[size] = b;
+        size++;
+    }
+
+    /**
+     * @param variable IR 变量
+     * @return 该变量在本缓冲区的变量池中的编号, 不属于该池时按名字并入
+     */
+    public int variableId(IRVariable variable) {
+        return variables.intern(variable).getId();
+    }
+
+    /**
+     * @param id 变量编号
+     * @return 对应的 IR 变量
+     */
+    public IRVariable variable(int id) {
+        return variables.get(id);
+    }
+
+    /**
+     * @return 变量编号的上界 (不含)
+     */
+    public int variableCount() {
+        return variables.size();
+    }
+
+    /**
+     * @return 变量编号所依据的变量池
+     */
+    public IRVariablePool variables() {
+        return variables;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int opcode(int index) {
+        return opcodes[index];
+    }
+
+    public InstructionKind kind(int index) {
+        return KINDS[opcodes[index] & KIND_MASK];
+    }
+
+    public int result(int index) {
+        return results[index];
+    }
+
+    public int operandA(int index) {
+        return operandsA[index];
+    }
+
+    public int operandB(int index) {
+        return operandsB[index];
+    }
+
+    public boolean isImmediateA(int index) {
+        return (opcodes[index] & IMMEDIATE_A) != 0;
+    }
+
+    public boolean isImmediateB(int index) {
+        return (opcodes[index] & IMMEDIATE_B) != 0;
+    }
+
+    /**
+     * @return 指向第 0 条指令的游标
+     */
+    public InstructionView view() {
+        return new InstructionView(this);
+    }
+
+    /**
+     * @param index 指令下标
+     * @return 由缓冲区中的数据重新构造的指令对象
+     */
+    public Instruction toInstruction(int index) {
+        final var view = view().moveTo(index);
+        return switch (view.getKind()) {
+            case ADD -> Instruction.createAdd(view.getResult(), view.getLHS(), view.getRHS());
+            case SUB -> Instruction.createSub(view.getResult(), view.getLHS(), view.getRHS());
+            case MUL -> Instruction.createMul(view.getResult(), view.getLHS(), view.getRHS());
+            case MOV -> Instruction.createMov(view.getResult(), view.getFrom());
+            case RET -> Instruction.createRet(view.getReturnValue());
+        };
+    }
+
+    /**
+     * @return 按需构造指令对象的只读列表, 供只接受 {@code List<Instruction>} 的代码使用
+     */
+    public List<Instruction> asList() {
+        return new AbstractList<>() {
+            @Override
+            public Instruction get(int index) {
+                return toInstruction(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return 指令数组占用的字节数 (按实际指令数计算, 不含变量表)
+     */
+    public long byteSize() {
+        return (long) size * 4 * Integer.BYTES;
+    }
+
+    /**
+     * @param index 指令下标
+     * @return 与 {@link Instruction#toString()} 相同格式的文本
+     */
+    public String toString(int index) {
+        return view().moveTo(index).toString();
+    }
+
+    private int parseVariable(String name) {
+        if (name.isEmpty()) {
+            throw new RuntimeException("Missing variable name");
+        }
+        return variables.named(name).getId();
+    }
+
+    private static boolean isInteger(String text) {
+        final var start = text.startsWith("-") ? 1 : 0;
+        if (text.length() == start) {
+            return false;
+        }
+        for (int i = start; i < text.length(); i++) {
+            if (!Character.isDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int encode(IRValue value) {
+        if (value instanceof IRImmediate immediate) {
+            return immediate.getValue();
+        } else if (value instanceof IRVariable variable) {
+            return variableId(variable);
+        } else {
+            throw new RuntimeException("Unknown IR value type");
+        }
+    }
+}
@@ -7,27 +7,31 @@ package cn.edu.hitsz.compiler.ir;
  * name 来表示. 临时变量的 name 都是 "$[0-9]+", 而非临时变量的 name 都是 "[a-zA-Z_][a-zA-Z0-9_]*"
  * <br>
  * IR 变量的等价性由 name 唯一确定.
+ * <br>
+ * 一次编译中的变量应当从该次编译的 {@link IRVariablePool} 中取得: 同名的变量总是同一个对象, 并带有一个从 0 开始的连续编号,
+ * 后端各阶段可以直接以编号为数组下标. 不经由池创建的变量没有编号.
  */
 public class IRVariable implements IRValue {
     /**
      * @param name 源语言中变量的名字
-     * @return 一个对应于源语言中具体变量的 IRVariable
+     * @return 一个对应于源语言中具体变量的, 不属于任何变量池的 IRVariable
+     * @see IRVariablePool#named(String)
      */
     public static IRVariable named(String name) {
-        return new IRVariable(name);
-    }
-
-    /**
-     * @return 一个对应于源语言中的临时变量的新 IRVariable
-     */
-    public static IRVariable temp() {
-        return new IRVariable("$" + count++);
+        return new IRVariable(name, -1);
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return 在所属变量池中的编号, 不属于任何变量池时为 -1
+     */
+    public int getId() {
+        return id;
+    }
+
     public boolean isTemp() {
         return name.startsWith("$");
     }
@@ -43,7 +47,7 @@ public class IRVariable implements IRValue {
 
     @Override
     public boolean equals(Object obj) {
-        return obj instanceof IRVariable reg && name.equals(reg.name);
+        return this == obj || (obj instanceof IRVariable reg && name.equals(reg.name));
     }
 
     @Override
@@ -51,10 +55,11 @@ public class IRVariable implements IRValue {
         return name.hashCode();
     }
 
-    private IRVariable(String name) {
+    IRVariable(String name, int id) {
         this.name = name;
+        this.id = id;
     }
 
     private final String name;
-    private static int count = 0;
+    private final int id;
 }
@@ -0,0 +1,79 @@
+package cn.edu.hitsz.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次编译所用的 IR 变量池
+ * <br>
+ * 池中同名的变量只有一个对象, 每个变量按创建的顺序被分配一个从 0 开始的连续编号 ({@link IRVariable#getId()}),
+ * 后端各阶段可以用它作为数组下标, 而不必以变量为键建立哈希表或解析变量名.
+ * 临时变量的序号也由池自己计数, 因此同一 JVM 中的多次编译互不影响, 可以在不同线程中同时进行; 但同一个池不是线程安全的.
+ */
+public final class IRVariablePool {
+    private final List<IRVariable> variables = new ArrayList<>();
+    private final Map<String, IRVariable> byName = new HashMap<>();
+    private int tempCount = 0;
+
+    /**
+     * @param name 源语言中变量的名字
+     * @return 池中该名字的变量, 不存在时新建
+     */
+    public IRVariable named(String name) {
+        final var variable = byName.get(name);
+        return variable != null ? variable : create(name);
+    }
+
+    /**
+     * @return 一个新的临时变量, 名字为池中尚未使用的 "$[0-9]+"
+     */
+    public IRVariable temp() {
+        while (true) {
+            final var name = "$" + tempCount++;
+            if (!byName.containsKey(name)) {
+                return create(name);
+            }
+        }
+    }
+
+    /**
+     * @param variable 任意 IR 变量
+     * @return 池中与之同名的变量, 不存在时新建; 若 variable 本就属于该池, 直接返回它
+     */
+    public IRVariable intern(IRVariable variable) {
+        return owns(variable) ? variable : named(variable.getName());
+    }
+
+    /**
+     * @param variable IR 变量
+     * @return 该变量对象是否属于该池
+     */
+    public boolean owns(IRVariable variable) {
+        final var id = variable.getId();
+        return id >= 0 && id < variables.size() && variables.get(id) == variable;
+    }
+
+    /**
+     * @param id 变量编号
+     * @return 该编号的变量
+     */
+    public IRVariable get(int id) {
+        return variables.get(id);
+    }
+
+    /**
+     * @return 变量数, 也是变量编号的上界 (不含)
+     */
+    public int size() {
+        return variables.size();
+    }
+
+    private IRVariable create(String name) {
+        final var variable = new IRVariable(name, variables.size());
+        variables.add(variable);
+        byName.put(name, variable);
+        return variable;
+    }
+}
@@ -1,9 +1,9 @@
 package cn.edu.hitsz.compiler.ir;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -55,27 +55,27 @@ public class Instruction {
     }
 
     public IRVariable getResult() {
-        ensureKindMatch(Set.of(InstructionKind.ADD, InstructionKind.SUB, InstructionKind.MUL, InstructionKind.MOV));
+        ensureKindMatch(InstructionKind.WITH_RESULT);
         return result;
     }
 
     public IRValue getLHS() {
-        ensureKindMatch(Set.of(InstructionKind.ADD, InstructionKind.SUB, InstructionKind.MUL));
+        ensureKindMatch(InstructionKind.BINARY);
         return operands.get(0);
     }
 
     public IRValue getRHS() {
-        ensureKindMatch(Set.of(InstructionKind.ADD, InstructionKind.SUB, InstructionKind.MUL));
+        ensureKindMatch(InstructionKind.BINARY);
         return operands.get(1);
     }
 
     public IRValue getFrom() {
-        ensureKindMatch(Set.of(InstructionKind.MOV));
+        ensureKindMatch(InstructionKind.MOV.mask());
         return operands.get(0);
     }
 
     public IRValue getReturnValue() {
-        ensureKindMatch(Set.of(InstructionKind.RET));
+        ensureKindMatch(InstructionKind.RET.mask());
         return operands.get(0);
     }
 
@@ -103,15 +103,25 @@ public class Instruction {
     private final IRVariable result;
     private final List<IRValue> operands;
 
-    private void ensureKindMatch(Set<InstructionKind> targetKinds) {
-        final var kind = getKind();
-        if (!targetKinds.contains(kind)) {
-            final var acceptKindsString = targetKinds.stream()
-                .map(InstructionKind::toString)
-                .collect(Collectors.joining(","));
-
-            throw new RuntimeException(
-                "Illegal operand access, except %s, but given %s".formatted(acceptKindsString, kind));
+    /**
+     * @param targetKinds 允许的种类的掩码 (参见 {@link InstructionKind#mask()})
+     */
+    private void ensureKindMatch(int targetKinds) {
+        if ((kind.mask() & targetKinds) == 0) {
+            throw illegalAccess(targetKinds);
         }
     }
+
+    /**
+     * 构造异常信息的部分与检查分开, 使 getter 足够小, 可以被内联
+     */
+    private RuntimeException illegalAccess(int targetKinds) {
+        final var acceptKindsString = Arrays.stream(InstructionKind.values())
+            .filter(target -> (target.mask() & targetKinds) != 0)
+            .map(InstructionKind::toString)
+            .collect(Collectors.joining(","));
+
+        return new RuntimeException(
+            "Illegal operand access, except %s, but given %s".formatted(acceptKindsString, kind));
+    }
 }
@@ -2,22 +2,64 @@ package cn.edu.hitsz.compiler.ir;
 
 /**
  * IR 的种类
+ * <br>
+ * 每种 IR 是否有返回值以及参数个数都在构造时确定, 并且每种 IR 对应一个掩码位 ({@link #mask()}),
+ * 以便 {@link Instruction} 的 getter 用一次位运算检查种类, 而不必每次构造一个集合.
  */
 public enum InstructionKind {
-    ADD, SUB, MUL, MOV, RET;
+    ADD(true, 2), SUB(true, 2), MUL(true, 2), MOV(true, 1), RET(false, 1);
+
+    /**
+     * 有返回值的 IR 的掩码
+     */
+    public static final int WITH_RESULT = ADD.mask() | SUB.mask() | MUL.mask() | MOV.mask();
+
+    /**
+     * 二元 IR 的掩码
+     */
+    public static final int BINARY = ADD.mask() | SUB.mask() | MUL.mask();
+
+    private final boolean hasResult;
+    private final int operandCount;
+
+    InstructionKind(boolean hasResult, int operandCount) {
+        this.hasResult = hasResult;
+        this.operandCount = operandCount;
+    }
+
+    /**
+     * @return 该种类对应的掩码位
+     */
+    public int mask() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * @return IR 是否有返回值
+     */
+    public boolean hasResult() {
+        return hasResult;
+    }
+
+    /**
+     * @return IR 的参数个数
+     */
+    public int operandCount() {
+        return operandCount;
+    }
 
     /**
      * @return IR 是否是二元的 (有返回值, 有两个参数)
      */
     public boolean isBinary() {
-        return this != MOV && this != RET;
+        return hasResult && operandCount == 2;
     }
 
     /**
      * @return IR 是否是一元的 (有返回值, 有一个参数)
      */
     public boolean isUnary() {
-        return this == MOV;
+        return hasResult && operandCount == 1;
     }
 
     /**
@@ -0,0 +1,124 @@
+package cn.edu.hitsz.compiler.ir;
+
+import java.util.List;
+
+/**
+ * {@link IRBuffer} 中某条指令的视图
+ * <br>
+ * 视图是一个可移动的游标, 本身只记录缓冲区与下标, 不复制任何数据. 它提供与 {@link Instruction} 同名的 getter,
+ * 使原本处理 Instruction 的代码只需把遍历方式改为移动游标; 性能敏感的代码则可以直接使用 {@link #resultId()},
+ * {@link #operandA()} 等返回 int 的方法.
+ * <br>
+ * getter 返回的 IR 变量是缓冲区变量表中的对象, 立即数则每次新建.
+ */
+public final class InstructionView {
+    private final IRBuffer buffer;
+    private int index = 0;
+
+    InstructionView(IRBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param index 指令下标
+     * @return 移动后的本视图
+     */
+    public InstructionView moveTo(int index) {
+        if (index < 0 || index >= buffer.size()) {
+            throw new IndexOutOfBoundsException("Instruction index %d out of range [0, %d)".formatted(index, buffer.size()));
+        }
+
+        this.index = index;
+        return this;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    //============================== 与 Instruction 相同的 getter ==============================
+    public InstructionKind getKind() {
+        return buffer.kind(index);
+    }
+
+    public IRVariable getResult() {
+        ensure(InstructionKind.WITH_RESULT);
+        return buffer.variable(buffer.result(index));
+    }
+
+    public IRValue getLHS() {
+        ensure(InstructionKind.BINARY);
+        return operand(buffer.operandA(index), buffer.isImmediateA(index));
+    }
+
+    public IRValue getRHS() {
+        ensure(InstructionKind.BINARY);
+        return operand(buffer.operandB(index), buffer.isImmediateB(index));
+    }
+
+    public IRValue getFrom() {
+        ensure(InstructionKind.MOV.mask());
+        return operand(buffer.operandA(index), buffer.isImmediateA(index));
+    }
+
+    public IRValue getReturnValue() {
+        ensure(InstructionKind.RET.mask());
+        return operand(buffer.operandA(index), buffer.isImmediateA(index));
+    }
+
+    public List<IRValue> getOperands() {
+        final var a = operand(buffer.operandA(index), buffer.isImmediateA(index));
+        return getKind().isBinary() ? List.of(a, operand(buffer.operandB(index), buffer.isImmediateB(index))) : List.of(a);
+    }
+
+    //============================== 编码后的字段 ==============================
+
+    /**
+     * @return 结果变量的编号, RET 指令为 -1
+     */
+    public int resultId() {
+        return buffer.result(index);
+    }
+
+    /**
+     * @return 操作数 A (LHS, MOV 的源, RET 的返回值): 变量编号或立即数的值
+     */
+    public int operandA() {
+        return buffer.operandA(index);
+    }
+
+    /**
+     * @return 操作数 B (RHS): 变量编号或立即数的值
+     */
+    public int operandB() {
+        return buffer.operandB(index);
+    }
+
+    public boolean isImmediateA() {
+        return buffer.isImmediateA(index);
+    }
+
+    public boolean isImmediateB() {
+        return buffer.isImmediateB(index);
+    }
+
+    @Override
+    public String toString() {
+        final var kind = getKind();
+        final var resultString = kind.isReturn() ? "" : getResult().toString();
+        final var operandsString = kind.isBinary()
+            ? getLHS() + ", " + getRHS()
+            : operand(buffer.operandA(index), buffer.isImmediateA(index)).toString();
+        return "(%s, %s, %s)".formatted(kind, resultString, operandsString);
+    }
+
+    private IRValue operand(int value, boolean immediate) {
+        return immediate ? IRImmediate.of(value) : buffer.variable(value);
+    }
+
+    private void ensure(int targetKinds) {
+        if ((getKind().mask() & targetKinds) == 0) {
+            throw new RuntimeException("Illegal operand access for %s".formatted(getKind()));
+        }
+    }
+}
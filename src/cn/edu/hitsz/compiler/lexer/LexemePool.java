@@ -0,0 +1,156 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.util.Arrays;
+
+/**
+ * 标识符与整数字面量的词素驻留表
+ * <br>
+ * 每个不同的词素只保存一份文本, 并被分配一个从 0 开始的连续编号. 查找时直接对源代码缓冲区中的字节求哈希并逐字节比较,
+ * 因此重复出现的词素不会产生任何临时字符串. 每个词素还可以绑定一个共享的 {@link Token}, 同一词素的所有词法单元都使用该对象.
+ * <br>
+ * 哈希表采用开放寻址 (线性探测), 槽中存放词素编号, -1 表示空槽.
+ */
+final class LexemePool {
+    private int[] slots = newSlots(64);
+    private int[] hashes = new int[32];
+    private String[] texts = new String[32];
+    private Token[] tokens = new Token[32];
+    private int size = 0;
+
+    /**
+     * @param source 源代码缓冲区
+     * @param begin  词素的起始偏移量
+     * @param end    词素的结束偏移量 (不含)
+     * @return 词素的编号, 若词素尚未出现过则为其分配新编号
+     */
+    int intern(SourceBuffer source, long begin, long end) {
+        var hash = 0;
+        for (var pos = begin; pos < end; pos++) {
+            hash = 31 * hash + source.get(pos);
+        }
+
+        final var mask = slots.length - 1;
+        for (var slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            final var id = slots[slot];
+            if (id < 0) {
+                return add(slot, hash, source.slice(begin, end));
+            }
+
+            if (hashes[id] == hash && matches(texts[id], source, begin, end)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @param text 词素文本
+     * @return 词素的编号, 若词素尚未出现过则为其分配新编号
+     */
+    int intern(String text) {
+        // 与按字节计算的哈希一致: 源语言只有 ASCII 字符, 两者相等
+        final var hash = text.hashCode();
+        final var mask = slots.length - 1;
+        for (var slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            final var id = slots[slot];
+            if (id < 0) {
+                return add(slot, hash, text);
+            }
+
+            if (hashes[id] == hash && texts[id].equals(text)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @param id 词素编号
+     * @return 词素文本
+     */
+    String text(int id) {
+        return texts[id];
+    }
+
+    /**
+     * @param id 词素编号
+     * @return 绑定到该词素的词法单元, 尚未绑定时为 null
+     */
+    Token token(int id) {
+        return tokens[id];
+    }
+
+    /**
+     * @param id    词素编号
+     * @param token 要绑定到该词素的词法单元
+     */
+    void bindToken(int id, Token token) {
+        tokens[id] = token;
+    }
+
+    /**
+     * @return 不同词素的数量
+     */
+    int size() {
+        return size;
+    }
+
+    private int add(int slot, int hash, String text) {
+        if (size == texts.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            texts = Arrays.copyOf(texts, size * 2);
+            tokens = Arrays.copyOf(tokens, size * 2);
+        }
+
+        final var id = size++;
+        hashes[id] = hash;
+        texts[id] = text;
+        slots[slot] = id;
+
+        // 装载因子保持在 1/2 以下
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+
+        return id;
+    }
+
+    private void rehash() {
+        slots = newSlots(slots.length * 2);
+        final var mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            var slot = mix(hashes[id]) & mask;
+            while (slots[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            slots[slot] = id;
+        }
+    }
+
+    private static boolean matches(String text, SourceBuffer source, long begin, long end) {
+        if (text.length() != end - begin) {
+            return false;
+        }
+
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) != source.get(begin + i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 打散 String 风格的哈希, 避免相近的标识符 (如 v1, v2, ...) 聚集在相邻的槽中
+     */
+    private static int mix(int hash) {
+        final var h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int[] newSlots(int capacity) {
+        final var slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        return slots;
+    }
+}
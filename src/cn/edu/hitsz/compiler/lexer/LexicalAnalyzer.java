@@ -1,18 +1,17 @@
 package cn.edu.hitsz.compiler.lexer;
 
-import cn.edu.hitsz.compiler.NotImplementedException;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 import cn.edu.hitsz.compiler.ir.IRImmediate;
-import cn.edu.hitsz.compiler.ir.IRValue;
-import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.IRVariablePool;
 import cn.edu.hitsz.compiler.ir.Instruction;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * TODO: 实验一: 实现词法分析
@@ -25,12 +24,21 @@ import java.util.stream.StreamSupport;
 public class LexicalAnalyzer {
     private final SymbolTable symbolTable;
 
-    private String code;
-    private ArrayList tokens = new ArrayList<>();
+    private SourceBuffer source;
+    private final LexemePool lexemes = new LexemePool();
+    private final TokenBuffer tokens = new TokenBuffer(ScanTable.getInstance(), lexemes);
 
-    private ArrayList instructions = new ArrayList<>();
+    private final ArrayList<Instruction> instructions = new ArrayList<>();
 
-    private HashMap<String, Integer> id2vreg = new HashMap<String, Integer>();
+    /**
+     * 本次编译的 IR 变量, 虚拟寄存器编号即变量在池中的编号
+     */
+    private final IRVariablePool variables = new IRVariablePool();
+
+    /**
+     * 以符号表条目编号为下标的虚拟寄存器编号加一, 0 表示该标识符尚未声明
+     */
+    private int[] id2vreg = new int[64];
 
     private HashMap<String, Integer> vreg2ir = new HashMap<String, Integer>();
 
@@ -42,18 +50,22 @@ public class LexicalAnalyzer {
         return instructions;
     }
 
+    /**
+     * @return 生成 IR 时所用的变量池, IR 中的每个变量都来自该池
+     */
+    public IRVariablePool getVariables() {
+        return variables;
+    }
+
     /**
      * 从给予的路径中读取并加载文件内容
      *
      * @param path 路径
      */
     public void loadFile(String path) {
-        // TODO: 词法分析前的缓冲区实现
-        // 可自由实现各类缓冲区
-        // 或直接采用完整读入方法
-
-        code = FileUtils.readFile(path);
-
+        // 源代码被映射为缓冲区, 词法分析时按字节直接读取
+        source = SourceBuffer.open(path);
+        scanner = new SourceScanner(ScanTable.getInstance(), source, lexemes, 0, source.length());
     }
 
     /**
@@ -61,168 +73,200 @@ public class LexicalAnalyzer {
      * 需要维护实验一所需的符号表条目, 而得在语法分析中才能确定的符号表条目的成员可以先设置为 null
      */
     public void run() {
-        // TODO: 自动机实现的词法分析过程
-
-        code = code.replaceAll("[\\n\t]", "");
-        // System.out.print(code);
-        var sentences = code.split(";", 0);
-
-        for (var sentence : sentences) {
-
-            var parse_result = parse_sentence(sentence);
-
-            parse_result.forEach(tokens::add);
-
-            tokens.add(Token.simple("Semicolon"));
+        while (true) {
+            final var token = scanner.nextInto(tokens);
+            if (onToken(token)) {
+                break;
+            }
         }
-
-        tokens.add(Token.eof());
     }
 
-    public void printIR() {
+    /**
+     * 并行地执行词法分析, 结果与 {@link #run()} 完全相同
+     * <br>
+     * 源语言由以分号结尾的语句平铺而成, 没有嵌套的块, 也没有字符串字面量, 因此分号之后总是一个新语句的开始.
+     * 源代码被按分号切分为若干块, 各块在线程池中分别进行词法分析, 得到各自的缓冲区与驻留表, 随后按顺序拼接到一起.
+     * 拼接时按块的顺序重新登记词素, 所以词素编号与顺序执行时一致. IR 则在拼接完成后按语句顺序生成.
+     *
+     * @param pool 执行词法分析的线程池
+     */
+    public void runParallel(ForkJoinPool pool) {
+        final var table = ScanTable.getInstance();
+        final var bounds = splitAtStatements(pool.getParallelism() * CHUNKS_PER_THREAD);
+
+        final var chunks = new ArrayList<ForkJoinTask<TokenBuffer>>();
+        for (int i = 0; i + 1 < bounds.size(); i++) {
+            final var begin = bounds.get(i);
+            final var end = bounds.get(i + 1);
+            chunks.add(pool.submit(() -> {
+                final var chunk = new TokenBuffer(table, new LexemePool());
+                final var chunkScanner = new SourceScanner(table, source.view(), chunk.pool(), begin, end);
+                while (chunkScanner.next().getKind() != TokenKind.eof()) {
+                    chunkScanner.appendLast(chunk);
+                }
+                return chunk;
+            }));
+        }
 
-        for (var instr : instructions) {
-            System.out.println(instr);
+        for (final var chunk : chunks) {
+            tokens.appendAll(chunk.join());
         }
+        tokens.append(TokenKind.eof().getCode(), source.length(), -1);
 
+        for (int i = 0; i < tokens.size(); i++) {
+            onToken(tokens.get(i));
+        }
     }
 
-    private Iterable<Token> parse_sentence(String sentence) {
-
-        sentence = sentence.trim();
-
-        // we assume the input is legal
-        List<Token> token_buf = new ArrayList<Token>();
-
-        if (sentence.contains("=")) {
-
-            var words = sentence.split("=");
-            words[0] = words[0].trim();
-            words[1] = words[1].trim();
-
-            // we assume the id is legal
-            token_buf.add(Token.normal("id", words[0]));
-            token_buf.add(Token.simple("="));
-
-            var expr = parse_expr(words[1]);
-            var result_vregid = expr2tree(expr);
-            assign_val(id2vreg.get(words[0]), result_vregid);
-
-            expr.forEach(token_buf::add);
-
-        } else {
-
-            var words = sentence.split(" ");
-
-            words[0] = words[0].trim();
-            words[1] = words[1].trim();
-
-            if (words[0].equals("int")) {
+    /**
+     * 并行词法分析时每个线程平均分到的块数, 多于一块以平衡各块的工作量
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
 
-                assert (words.length == 2);
+    /**
+     * 并行词法分析时每块的最小字节数, 过小的块不值得调度
+     */
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
 
-                vreg_id++;
-                id2vreg.put(words[1], vreg_id);
+    /**
+     * 将源代码切分为大致等长的块, 每块的末尾都在分号之后 (最后一块除外)
+     *
+     * @param count 期望的块数
+     * @return 各块的边界, 第一个为 0, 最后一个为源代码长度
+     */
+    private List<Long> splitAtStatements(int count) {
+        final var length = source.length();
+        final var target = Math.max(MIN_CHUNK_SIZE, length / count);
+
+        final var bounds = new ArrayList<Long>();
+        bounds.add(0L);
+        var pos = 0L;
+        while (pos < length) {
+            pos = Math.min(pos + target, length);
+            while (pos < length && source.get(pos - 1) != ';') {
+                pos++;
+            }
+            bounds.add(pos);
+        }
 
-                token_buf.add(Token.simple("int"));
-                token_buf.add(Token.normal("id", words[1]));
+        return bounds;
+    }
 
-            } else if (words[0].equals("return")) {
-                assert (words.length == 2);
-                token_buf.add(Token.simple("return"));
+    /**
+     * 获得按需进行词法分析的词法单元流, 与 {@link #run()} 二者只能选其一
+     * <br>
+     * 每次从流中取出词法单元时才扫描源代码, 已经取出的词法单元不会被保存, 因此可以与语法分析同时进行.
+     * 对应的 IR 在流到达 EOF 时才完整.
+     *
+     * @return 词法单元流
+     */
+    public TokenStream stream() {
+        return new TokenStream() {
+            private Token lookahead = null;
+
+            @Override
+            public Token peek() {
+                if (lookahead == null) {
+                    lookahead = scanner.next();
+                    onToken(lookahead);
+                }
 
-                var expr = parse_expr(words[1]);
+                return lookahead;
+            }
 
-                var result_vregid = expr2tree(expr);
-                ret_val(result_vregid);
+            @Override
+            public Token next() {
+                final var token = peek();
+                lookahead = null;
+                return token;
+            }
+        };
+    }
 
-                expr.forEach(token_buf::add);
+    private SourceScanner scanner;
+    private final List<Token> statement = new ArrayList<>();
 
-            }
+    /**
+     * 按顺序处理每个识别出的词法单元, 每凑齐一条以分号结尾的语句, 便立即为其生成 IR
+     *
+     * @param token 词法单元
+     * @return 是否已到达 EOF
+     */
+    private boolean onToken(Token token) {
+        if (token.getKind() == TokenKind.eof()) {
+            source.close();
+            return true;
+        }
 
+        if (token.getKindId().equals("id")) {
+            symbolTable.getOrAdd(token.getText());
         }
 
-        return token_buf;
+        statement.add(token);
+        if (token.getKindId().equals("Semicolon")) {
+            parse_sentence(statement);
+            statement.clear();
+        }
 
+        return false;
     }
 
-    private Iterable<Token> parse_expr(String expr) {
-        expr = expr.replaceAll("[ ]", "");
-        var symbols = List.of('(', ')', '*', '/', '+');
-
-        var chars = expr.toCharArray();
-
-        var token_buf = new ArrayList<Token>();
-
-        var ptr = 0;
+    public void printIR() {
 
-        var last_token_is_symbol = true;
+        for (var instr : instructions) {
+            System.out.println(instr);
+        }
 
-        while (true) {
-            if (ptr >= chars.length)
-                break;
+    }
 
-            if (chars[ptr] == ' ') {
-                ptr++;
-                continue;
-            }
+    private void parse_sentence(List<Token> sentence) {
 
-            if (symbols.contains(chars[ptr])) {
-                token_buf.add(Token.simple(chars[ptr] + ""));
-                last_token_is_symbol = true;
-                ptr++;
-            } else if (chars[ptr] == '-') {
-                if (last_token_is_symbol) {
-                    var str_buf = "-";
-                    ptr++;
-
-                    while (ptr < chars.length && '0' <= chars[ptr] && chars[ptr] <= '9') {
-                        str_buf += chars[ptr];
-                        ptr++;
-                    }
+        // we assume the input is legal, the last token is the Semicolon
+        var words = sentence.subList(0, sentence.size() - 1);
+        if (words.isEmpty()) {
+            return;
+        }
 
-                    token_buf.add(Token.normal("IntConst", str_buf));
+        var head = words.get(0).getKindId();
 
-                    last_token_is_symbol = false;
-                } else {
-                    token_buf.add(Token.simple(chars[ptr] + ""));
-                    last_token_is_symbol = true;
-                    ptr++;
-                }
+        if (head.equals("int")) {
 
-            } else if ('0' <= chars[ptr] && chars[ptr] <= '9') {
+            bindVreg(words.get(1).getText(), newVreg());
 
-                var str_buf = "";
+        } else if (head.equals("return")) {
 
-                while (ptr < chars.length && '0' <= chars[ptr] && chars[ptr] <= '9') {
-                    str_buf += chars[ptr];
-                    ptr++;
-                }
+            var result_vregid = expr2tree(words.subList(1, words.size()));
+            ret_val(result_vregid);
 
-                token_buf.add(Token.normal("IntConst", str_buf));
+        } else if (words.size() > 1 && words.get(1).getKindId().equals("=")) {
 
-                last_token_is_symbol = false;
-            } else if (true) {
-                // we assume it is among [a-zA-Z]
+            // we assume the id is legal
+            var result_vregid = expr2tree(words.subList(2, words.size()));
+            assign_val(vregOf(words.get(0).getText()), result_vregid);
 
-                var str_buf = "";
+        }
 
-                while (ptr < chars.length && !symbols.contains(chars[ptr]) && chars[ptr] != '-') {
-                    str_buf += chars[ptr];
-                    ptr++;
-                }
+    }
 
-                token_buf.add(Token.normal("id", str_buf));
-                last_token_is_symbol = false;
+    private int newVreg() {
+        return variables.temp().getId();
+    }
 
-            }
+    private void bindVreg(String name, int vreg) {
+        final var id = symbolTable.get(name).getId();
+        if (id >= id2vreg.length) {
+            id2vreg = Arrays.copyOf(id2vreg, Math.max(id + 1, id2vreg.length * 2));
         }
-
-        return token_buf;
-
+        id2vreg[id] = vreg + 1;
     }
 
-    private int vreg_id = 0;
+    private int vregOf(String name) {
+        final var id = symbolTable.get(name).getId();
+        if (id >= id2vreg.length || id2vreg[id] == 0) {
+            throw new RuntimeException("Undeclared identifier " + name);
+        }
+        return id2vreg[id] - 1;
+    }
 
     public int expr2tree(Iterable<Token> tokens) {
         var tokens_list = new ArrayList<Token>();
@@ -274,12 +318,11 @@ public class LexicalAnalyzer {
             var token = tokens_list.get(0);
 
             if (token.getKindId().equals("id")) {
-                int vreg = id2vreg.get(token.getText());
-                return vreg;
+                return vregOf(token.getText());
             } else {
 
                 // if the token is a intconst, we creae a vreg for it
-                vreg_id++;
+                var vreg_id = newVreg();
                 assign_imm(vreg_id, Integer.parseInt(tokens_list.get(0).getText()));
                 return vreg_id;
             }
@@ -292,7 +335,7 @@ public class LexicalAnalyzer {
             var lhs = expr2tree(tokens_list.subList(0, last_op_index));
             var rhs = expr2tree(tokens_list.subList(last_op_index + 1, tokens_list.size()));
 
-            vreg_id++;
+            var vreg_id = newVreg();
             var op = tokens_list.get(last_op_index).getKind().getIdentifier();
             arith(vreg_id, lhs, rhs, op);
             return vreg_id;
@@ -302,9 +345,9 @@ public class LexicalAnalyzer {
     }
 
     private void arith(int ddst, int ssrc1, int ssrc2, String op) {
-        var dst = IRVariable.named("" + ddst);
-        var src1 = IRVariable.named("" + ssrc1);
-        var src2 = IRVariable.named("" + ssrc2);
+        var dst = variables.get(ddst);
+        var src1 = variables.get(ssrc1);
+        var src2 = variables.get(ssrc2);
         Instruction instr = null;
         switch (op) {
             case "+":
@@ -327,20 +370,20 @@ public class LexicalAnalyzer {
 
     private void assign_imm(int vreg_id, int value) {
         var imm = IRImmediate.of(value);
-        var result = IRVariable.named("" + vreg_id);
+        var result = variables.get(vreg_id);
         var instr = Instruction.createMov(result, imm);
         instructions.add(instr);
     }
 
     private void assign_val(int ddst, int ssrc) {
-        var dest = IRVariable.named("" + ddst);
-        var src = IRVariable.named("" + ssrc);
+        var dest = variables.get(ddst);
+        var src = variables.get(ssrc);
         var instr = Instruction.createMov(dest, src);
         instructions.add(instr);
     }
 
     private void ret_val(int ssrc) {
-        var src = IRVariable.named("" + ssrc);
+        var src = variables.get(ssrc);
         var instr = Instruction.createRet(src);
         instructions.add(instr);
     }
@@ -348,20 +391,18 @@ public class LexicalAnalyzer {
     /**
      * 获得词法分析的结果, 保证在调用了 run 方法之后调用
      *
-     * @return Token 列表
+     * @return 紧凑存放的 Token 列表
      */
-    public Iterable<Token> getTokens() {
-        // TODO: 从词法分析过程中获取 Token 列表
-        // 词法分析过程可以使用 Stream 或 Iterator 实现按需分析
-        // 亦可以直接分析完整个文件
-        // 总之实现过程能转化为一列表即可
+    public TokenBuffer getTokens() {
         return tokens;
     }
 
     public void dumpTokens(String path) {
-        FileUtils.writeLines(
-                path,
-                StreamSupport.stream(getTokens().spliterator(), false).map(Token::toString).toList());
+        try (final var tee = tokens.stream().tee(path)) {
+            while (tee.next().getKind() != TokenKind.eof()) {
+                // 逐个读取即可写出
+            }
+        }
     }
 
 }
@@ -0,0 +1,191 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 词法分析自动机 (DFA) 的转移表
+ * <br>
+ * 该表在 {@link TokenKind#loadTokenKinds()} 读取码点文件之后构造: 码点文件中由单个符号组成的标识符 (如 {@code +}, {@code =})
+ * 被登记为标点, 由字母组成的标识符 (如 {@code int}, {@code return}) 被登记为关键字, 而 {@code id} 与 {@code IntConst}
+ * 则由自动机中对应的状态识别.
+ * <br>
+ * 自动机先通过字符类别表把每个字符映射到一个类别, 再由 (状态, 类别) 查转移表得到下一个状态. 除两个起始状态外, 所有状态都是接受状态,
+ * 因此按最长匹配原则扫描时遇到无转移的字符即可直接接受当前词法单元, 无需回退.
+ * <br>
+ * 两个起始状态的区别仅在于对 {@code -} 的处理: 在期待操作数的位置 (语句开头, 运算符或左括号之后), {@code -} 后紧跟的数字被识别为负数字面量;
+ * 其它位置的 {@code -} 则总是减号.
+ */
+final class ScanTable {
+    //==================================== 字符类别 ========================================//
+    static final int C_OTHER = 0;
+    static final int C_SPACE = 1;
+    static final int C_LETTER = 2;
+    static final int C_DIGIT = 3;
+    static final int C_PUNCT = 4;
+    static final int C_MINUS = 5;
+    private static final int CLASS_COUNT = 6;
+
+    //==================================== 自动机状态 ========================================//
+    static final int S_NONE = -1;
+    static final int S_START = 0;
+    static final int S_START_UNARY = 1;
+    static final int S_ID = 2;
+    static final int S_INT = 3;
+    static final int S_PUNCT = 4;
+    static final int S_MINUS = 5;
+    static final int S_NEG_INT = 6;
+    private static final int STATE_COUNT = 7;
+
+    /**
+     * 码点文件中没有直接写出符号本身的标点
+     */
+    private static final Map<String, Character> PUNCT_ALIASES = Map.of("Semicolon", ';');
+
+    private static ScanTable instance = null;
+
+    /**
+     * @return 根据已读取的码点文件构造出的转移表
+     */
+    static ScanTable getInstance() {
+        if (instance == null) {
+            instance = new ScanTable(TokenKind.allAllowedTokenKinds());
+        }
+
+        return instance;
+    }
+
+    private final byte[] classes = new byte[128];
+    private final TokenKind[] puncts = new TokenKind[128];
+    private final Token[] simpleTokens;
+    private final int[] transitions = new int[STATE_COUNT * CLASS_COUNT];
+    private final Map<String, Token> keywords = new HashMap<>();
+    private final TokenKind id;
+    private final TokenKind intConst;
+
+    private ScanTable(Map<String, TokenKind> kinds) {
+        this.id = TokenKind.fromString("id");
+        this.intConst = TokenKind.fromString("IntConst");
+
+        // 不带文本的词法单元是不可变的, 每种类型只需构造一个, 按码点 + 1 存放 (EOF 的码点为 -1)
+        final var maxCode = kinds.values().stream().mapToInt(TokenKind::getCode).max().orElse(0);
+        this.simpleTokens = new Token[maxCode + 2];
+        for (final var kind : kinds.values()) {
+            simpleTokens[kind.getCode() + 1] = kind == TokenKind.eof() ? Token.eof() : Token.simple(kind);
+        }
+
+        for (final var kind : kinds.values()) {
+            final var name = kind.getIdentifier();
+            if (kind == id || kind == intConst || kind == TokenKind.eof()) {
+                continue;
+            }
+
+            if (PUNCT_ALIASES.containsKey(name)) {
+                puncts[PUNCT_ALIASES.get(name)] = kind;
+            } else if (name.length() == 1 && !Character.isLetterOrDigit(name.charAt(0))) {
+                puncts[name.charAt(0)] = kind;
+            } else {
+                keywords.put(name, simpleToken(kind.getCode()));
+            }
+        }
+
+        for (int c = 0; c < 128; c++) {
+            if (c == '-') {
+                classes[c] = C_MINUS;
+            } else if (puncts[c] != null) {
+                classes[c] = C_PUNCT;
+            } else if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                classes[c] = C_SPACE;
+            } else if (('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || c == '_') {
+                classes[c] = C_LETTER;
+            } else if ('0' <= c && c <= '9') {
+                classes[c] = C_DIGIT;
+            } else {
+                classes[c] = C_OTHER;
+            }
+        }
+
+        Arrays.fill(transitions, S_NONE);
+        for (final var start : new int[]{S_START, S_START_UNARY}) {
+            setTransition(start, C_LETTER, S_ID);
+            setTransition(start, C_DIGIT, S_INT);
+            setTransition(start, C_PUNCT, S_PUNCT);
+        }
+        setTransition(S_START, C_MINUS, S_PUNCT);
+        setTransition(S_START_UNARY, C_MINUS, S_MINUS);
+        setTransition(S_ID, C_LETTER, S_ID);
+        setTransition(S_ID, C_DIGIT, S_ID);
+        setTransition(S_INT, C_DIGIT, S_INT);
+        setTransition(S_MINUS, C_DIGIT, S_NEG_INT);
+        setTransition(S_NEG_INT, C_DIGIT, S_NEG_INT);
+    }
+
+    private void setTransition(int state, int charClass, int next) {
+        transitions[state * CLASS_COUNT + charClass] = next;
+    }
+
+    /**
+     * @param c 字符
+     * @return 该字符的类别, 非 ASCII 字符恒为 {@link #C_OTHER}
+     */
+    int classOf(int c) {
+        return c < 128 ? classes[c] : C_OTHER;
+    }
+
+    /**
+     * @param state 当前状态
+     * @param c     下一个字符
+     * @return 下一个状态, 无转移时为 {@link #S_NONE}
+     */
+    int next(int state, int c) {
+        return transitions[state * CLASS_COUNT + classOf(c)];
+    }
+
+    /**
+     * 在接受状态下根据识别出的词素构造词法单元
+     * <br>
+     * 标点与关键字返回共享的词法单元对象; 标识符与整数字面量则每次构造新对象,
+     * 调用者应当对每个不同的词素只调用一次 (参见 {@link LexemePool#bindToken(int, Token)})
+     *
+     * @param state  接受状态
+     * @param first  词素的首字符
+     * @param lexeme 词素, 仅当状态为标识符或整数时被使用
+     * @return 词法单元
+     */
+    Token accept(int state, int first, String lexeme) {
+        return switch (state) {
+            case S_ID -> {
+                final var keyword = keywords.get(lexeme);
+                yield keyword != null ? keyword : Token.normal(id, lexeme);
+            }
+            case S_INT, S_NEG_INT -> Token.normal(intConst, lexeme);
+            case S_PUNCT, S_MINUS -> simpleToken(puncts[first].getCode());
+            default -> throw new RuntimeException("Not an accepting state: " + state);
+        };
+    }
+
+    /**
+     * @param code 码点
+     * @return 该类型的共享的不带文本的词法单元
+     */
+    Token simpleToken(int code) {
+        return simpleTokens[code + 1];
+    }
+
+    /**
+     * @param state 接受状态
+     * @return 该状态接受的词素是否需要保留文本
+     */
+    boolean hasText(int state) {
+        return state == S_ID || state == S_INT || state == S_NEG_INT;
+    }
+
+    /**
+     * @param kind 刚刚识别出的词法单元类型
+     * @return 在该词法单元之后是否处于期待操作数的位置
+     */
+    boolean expectsOperandAfter(TokenKind kind) {
+        return kind != id && kind != intConst && kind != puncts[')'];
+    }
+}
@@ -0,0 +1,202 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 词法分析器读取源代码所用的缓冲区
+ * <br>
+ * 源代码以字节形式按偏移量访问. 从文件打开时缓冲区直接映射文件内容 ({@link MappedByteBuffer}), 不会把文件读入堆中,
+ * 因此词法分析期间的堆占用与文件大小无关, 且映射完成后即可开始扫描. 单个映射最多只能覆盖 2GB, 对于更大的文件则改为按窗口逐段映射.
+ * <br>
+ * 源语言只包含 ASCII 字符, 截取出的词素按 ISO-8859-1 解码, 即每个字节对应一个字符.
+ */
+public abstract class SourceBuffer implements AutoCloseable {
+    /**
+     * 窗口映射模式下每个窗口的大小
+     */
+    static final long WINDOW_SIZE = 1L << 30;
+
+    /**
+     * 以映射方式打开源代码文件
+     *
+     * @param path 文件路径
+     * @return 对应的缓冲区
+     */
+    public static SourceBuffer open(String path) {
+        try {
+            final var channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            final var size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                // 映射在通道关闭后依然有效
+                channel.close();
+                return new Mapped(buffer);
+            } else {
+                return new Windowed(channel, size);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on " + path, e);
+        }
+    }
+
+    /**
+     * @param text 源代码文本
+     * @return 以该文本为内容的缓冲区
+     */
+    public static SourceBuffer of(String text) {
+        return new Heap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @return 源代码的字节数
+     */
+    public abstract long length();
+
+    /**
+     * @param pos 偏移量
+     * @return 该位置的字节 (无符号)
+     */
+    public abstract int get(long pos);
+
+    /**
+     * 截取 [begin, end) 之间的内容
+     *
+     * @param begin 起始偏移量
+     * @param end   结束偏移量 (不含)
+     * @return 截取出的文本
+     */
+    public String slice(long begin, long end) {
+        final var bytes = new byte[Math.toIntExact(end - begin)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) get(begin + i);
+        }
+
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 读取操作只使用绝对位置, 多数实现可以直接在多个线程间共享; 需要维护读取状态的实现则返回一个共享底层文件的新缓冲区.
+     *
+     * @return 可以在另一线程中独立读取同一内容的缓冲区, 它不需要被关闭
+     */
+    public SourceBuffer view() {
+        return this;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * 整个文件映射为一块
+     */
+    private static final class Mapped extends SourceBuffer {
+        private final MappedByteBuffer buffer;
+
+        private Mapped(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long length() {
+            return buffer.capacity();
+        }
+
+        @Override
+        public int get(long pos) {
+            return buffer.get((int) pos) & 0xff;
+        }
+
+        @Override
+        public String slice(long begin, long end) {
+            final var bytes = new byte[(int) (end - begin)];
+            buffer.get((int) begin, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * 超过 2GB 的文件, 每次只映射访问位置所在的窗口
+     */
+    private static final class Windowed extends SourceBuffer {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window = null;
+        private long windowBegin = 0;
+        private long windowEnd = 0;
+
+        private Windowed(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        @Override
+        public long length() {
+            return size;
+        }
+
+        @Override
+        public int get(long pos) {
+            if (pos < windowBegin || pos >= windowEnd) {
+                moveWindow(pos);
+            }
+
+            return window.get((int) (pos - windowBegin)) & 0xff;
+        }
+
+        private void moveWindow(long pos) {
+            windowBegin = pos - pos % WINDOW_SIZE;
+            windowEnd = Math.min(windowBegin + WINDOW_SIZE, size);
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowBegin, windowEnd - windowBegin);
+            } catch (IOException e) {
+                throw new RuntimeException("IO Exception on mapping source window at " + windowBegin, e);
+            }
+        }
+
+        @Override
+        public SourceBuffer view() {
+            return new Windowed(channel, size);
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new RuntimeException("IO Exception on closing source", e);
+            }
+        }
+    }
+
+    /**
+     * 内容已位于堆中的缓冲区
+     */
+    private static final class Heap extends SourceBuffer {
+        private final byte[] bytes;
+
+        private Heap(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long length() {
+            return bytes.length;
+        }
+
+        @Override
+        public int get(long pos) {
+            return bytes[(int) pos] & 0xff;
+        }
+
+        @Override
+        public String slice(long begin, long end) {
+            return new String(bytes, (int) begin, (int) (end - begin), StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package cn.edu.hitsz.compiler.lexer;
+
+/**
+ * 在源代码的一段区间 [begin, end) 上运行词法分析自动机
+ * <br>
+ * 词法分析由 {@link ScanTable} 驱动的自动机一遍扫描源代码完成, 词素直接按偏移量从源代码中截取并登记到 {@link LexemePool}.
+ * 区间的起点必须位于语句开头 (文件开头或分号之后), 这样自动机才能以期待操作数的状态开始.
+ */
+final class SourceScanner {
+    private final ScanTable table;
+    private final SourceBuffer source;
+    private final LexemePool lexemes;
+    private final long end;
+
+    private long pos;
+    private boolean expectsOperand = true;
+    private long lastStart;
+    private int lastLexeme = -1;
+    private int lastKindCode = TokenKind.eof().getCode();
+
+    SourceScanner(ScanTable table, SourceBuffer source, LexemePool lexemes, long begin, long end) {
+        this.table = table;
+        this.source = source;
+        this.lexemes = lexemes;
+        this.pos = begin;
+        this.end = end;
+        this.lastStart = begin;
+    }
+
+    /**
+     * 从当前位置开始识别下一个词法单元
+     *
+     * @return 识别出的词法单元, 到达区间末尾后总是返回 EOF
+     */
+    Token next() {
+        while (pos < end && table.classOf(source.get(pos)) == ScanTable.C_SPACE) {
+            pos++;
+        }
+
+        if (pos >= end) {
+            lastStart = end;
+            lastLexeme = -1;
+            lastKindCode = TokenKind.eof().getCode();
+            return table.simpleToken(TokenKind.eof().getCode());
+        }
+
+        // maximal munch: every non-start state accepts, so stop at the first missing transition
+        final var begin = pos;
+        final var start = expectsOperand ? ScanTable.S_START_UNARY : ScanTable.S_START;
+        var state = start;
+        while (pos < end) {
+            final var next = table.next(state, source.get(pos));
+            if (next == ScanTable.S_NONE) {
+                break;
+            }
+
+            state = next;
+            pos++;
+        }
+
+        if (state == start) {
+            throw new RuntimeException("Unexpected character '%c' at offset %d".formatted(source.get(pos), pos));
+        }
+
+        final Token token;
+        if (table.hasText(state)) {
+            // 同一词素的词法单元共用一个对象, 只在词素第一次出现时构造
+            final var lexeme = lexemes.intern(source, begin, pos);
+            final var known = lexemes.token(lexeme);
+            if (known != null) {
+                token = known;
+            } else {
+                token = table.accept(state, source.get(begin), lexemes.text(lexeme));
+                lexemes.bindToken(lexeme, token);
+            }
+            lastLexeme = lexeme;
+        } else {
+            token = table.accept(state, source.get(begin), null);
+            lastLexeme = -1;
+        }
+        lastStart = begin;
+        lastKindCode = token.getKind().getCode();
+
+        expectsOperand = table.expectsOperandAfter(token.getKind());
+        return token;
+    }
+
+    /**
+     * 将下一个词法单元追加到缓冲区中
+     *
+     * @param buffer 缓冲区
+     * @return 追加的词法单元
+     */
+    Token nextInto(TokenBuffer buffer) {
+        final var token = next();
+        appendLast(buffer);
+        return token;
+    }
+
+    /**
+     * 将刚刚识别出的词法单元追加到缓冲区中
+     *
+     * @param buffer 缓冲区
+     */
+    void appendLast(TokenBuffer buffer) {
+        buffer.append(lastKindCode, lastStart, lastLexeme);
+    }
+}
@@ -0,0 +1,84 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * 将从上游取出的词法单元同时写入文件的词法单元流
+ * <br>
+ * 词法单元在被第一次读取 (无论是 peek 还是 next) 时写出, 这样驱动程序只 peek 而从不移入的 EOF 也会被写出.
+ * 文件在写出 EOF 后关闭; 读取中途出错时由使用者调用 {@link #close()}, 已读取的词法单元同样会被写出.
+ *
+ * @see TokenStream#tee(String)
+ */
+public final class TeeTokenStream implements TokenStream, AutoCloseable {
+    private final TokenStream source;
+    private final String path;
+    private BufferedWriter writer;
+    private Token lookahead = null;
+
+    TeeTokenStream(TokenStream source, String path) {
+        this.source = source;
+        this.path = path;
+        try {
+            this.writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        }
+    }
+
+    @Override
+    public Token peek() {
+        if (lookahead == null) {
+            lookahead = source.next();
+            write(lookahead);
+        }
+
+        return lookahead;
+    }
+
+    @Override
+    public Token next() {
+        final var token = peek();
+        lookahead = null;
+        return token;
+    }
+
+    /**
+     * 写出缓冲中的词法单元并关闭文件, 可重复调用
+     */
+    @Override
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        } finally {
+            writer = null;
+        }
+    }
+
+    private void write(Token token) {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.write(token.toString());
+            writer.newLine();
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        }
+
+        if (token.getKind() == TokenKind.eof()) {
+            close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 以并列数组 (struct-of-arrays) 形式紧凑存放的词法单元序列
+ * <br>
+ * 第 i 个词法单元由 {@code kindCodes[i]} (其类型的码点), {@code starts[i]} (在源代码中的起始偏移量) 与
+ * {@code lexemes[i]} (标识符与整数字面量在 {@link LexemePool} 中的词素编号, 其它词法单元为 -1) 三者描述,
+ * 每个词法单元只占 16 字节, 词素文本则由驻留表统一保存. 词素的长度可以由其文本或类型得到, 因此不再单独存放.
+ * <br>
+ * 通过 {@link #get(int)} 取出的 {@link Token} 是共享的享元对象: 相同类型的标点与关键字共用一个对象,
+ * 相同词素的标识符与整数字面量也共用一个对象, 所以遍历缓冲区不会分配新的 Token.
+ */
+public final class TokenBuffer implements Iterable<Token> {
+    private final ScanTable table;
+    private final LexemePool pool;
+    private int[] kindCodes = new int[1024];
+    private long[] starts = new long[1024];
+    private int[] lexemes = new int[1024];
+    private int size = 0;
+
+    TokenBuffer(ScanTable table, LexemePool pool) {
+        this.table = table;
+        this.pool = pool;
+    }
+
+    /**
+     * 在末尾追加一个词法单元
+     *
+     * @param kindCode 类型的码点
+     * @param start    起始偏移量
+     * @param lexeme   词素编号, 没有词素时为 -1
+     */
+    void append(int kindCode, long start, int lexeme) {
+        if (size == kindCodes.length) {
+            final var capacity = size * 2;
+            kindCodes = Arrays.copyOf(kindCodes, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lexemes = Arrays.copyOf(lexemes, capacity);
+        }
+
+        kindCodes[size] = kindCode;
+        starts[size] = start;
+        lexemes[size] = lexeme;
+        size++;
+    }
+
+    /**
+     * 在末尾追加另一个缓冲区中的全部词法单元, 其词素被重新登记到本缓冲区的驻留表中
+     *
+     * @param other 另一个缓冲区
+     */
+    void appendAll(TokenBuffer other) {
+        final var remap = new int[other.pool.size()];
+        for (int id = 0; id < remap.length; id++) {
+            remap[id] = pool.intern(other.pool.text(id));
+            if (pool.token(remap[id]) == null) {
+                pool.bindToken(remap[id], other.pool.token(id));
+            }
+        }
+
+        final var required = size + other.size;
+        if (required > kindCodes.length) {
+            final var capacity = Math.max(required, kindCodes.length * 2);
+            kindCodes = Arrays.copyOf(kindCodes, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lexemes = Arrays.copyOf(lexemes, capacity);
+        }
+
+        System.arraycopy(other.kindCodes, 0, kindCodes, size, other.size);
+        System.arraycopy(other.starts, 0, starts, size, other.size);
+        for (int i = 0; i < other.size; i++) {
+            final var lexeme = other.lexemes[i];
+            lexemes[size + i] = lexeme >= 0 ? remap[lexeme] : -1;
+        }
+        size = required;
+    }
+
+    LexemePool pool() {
+        return pool;
+    }
+
+    /**
+     * @return 词法单元的数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index 下标
+     * @return 第 index 个词法单元类型的码点
+     */
+    public int kindCode(int index) {
+        return kindCodes[index];
+    }
+
+    /**
+     * @param index 下标
+     * @return 第 index 个词法单元在源代码中的起始偏移量
+     */
+    public long start(int index) {
+        return starts[index];
+    }
+
+    /**
+     * @param index 下标
+     * @return 第 index 个词法单元的享元视图
+     */
+    public Token get(int index) {
+        final var lexeme = lexemes[index];
+        return lexeme >= 0 ? pool.token(lexeme) : table.simpleToken(kindCodes[index]);
+    }
+
+    @Override
+    public Iterator<Token> iterator() {
+        return new Iterator<>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Token next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+
+                return get(index++);
+            }
+        };
+    }
+
+    /**
+     * @return 依次产生缓冲区中词法单元的流
+     */
+    public TokenStream stream() {
+        return new TokenStream() {
+            private int index = 0;
+
+            @Override
+            public Token peek() {
+                return index < size ? get(index) : table.simpleToken(TokenKind.eof().getCode());
+            }
+
+            @Override
+            public Token next() {
+                final var token = peek();
+                if (index < size) {
+                    index++;
+                }
+
+                return token;
+            }
+        };
+    }
+}
@@ -0,0 +1,60 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.util.Iterator;
+
+/**
+ * 按需产生的词法单元流
+ * <br>
+ * 语法分析驱动程序需要在不消耗词法单元的情况下读取它 (用于查表), 并在移入时再消耗它, 分别对应 {@link #peek()} 与 {@link #next()}.
+ * 词法单元流在到达末尾之后会一直返回 EOF.
+ *
+ * @see LexicalAnalyzer#stream()
+ */
+public interface TokenStream {
+    /**
+     * @return 下一个词法单元, 但不消耗它
+     */
+    Token peek();
+
+    /**
+     * @return 下一个词法单元, 并消耗它
+     */
+    Token next();
+
+    /**
+     * 在读取词法单元的同时将其按 {@link Token#toString()} 逐行写入文件, 遇到 EOF 后关闭文件
+     *
+     * @param path 输出文件路径
+     * @return 新的词法单元流, 可能在 EOF 之前停止读取时应将其关闭
+     */
+    default TeeTokenStream tee(String path) {
+        return new TeeTokenStream(this, path);
+    }
+
+    /**
+     * @param tokens 已经构造好的词法单元, 末尾的 EOF 可有可无
+     * @return 依次产生这些词法单元的流
+     */
+    static TokenStream of(Iterable<Token> tokens) {
+        final Iterator<Token> iterator = tokens.iterator();
+        return new TokenStream() {
+            private Token lookahead = null;
+
+            @Override
+            public Token peek() {
+                if (lookahead == null) {
+                    lookahead = iterator.hasNext() ? iterator.next() : Token.eof();
+                }
+
+                return lookahead;
+            }
+
+            @Override
+            public Token next() {
+                final var token = peek();
+                lookahead = null;
+                return token;
+            }
+        };
+    }
+}
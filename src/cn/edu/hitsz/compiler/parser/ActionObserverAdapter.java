@@ -0,0 +1,35 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.parser.table.ParseTable;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+
+/**
+ * 将批量事件逐个转发给 {@link ActionObserver} 的适配器
+ *
+ * @see ParseEventObserver#of(ActionObserver)
+ */
+final class ActionObserverAdapter implements ParseEventObserver {
+    private final ActionObserver observer;
+
+    ActionObserverAdapter(ActionObserver observer) {
+        this.observer = observer;
+    }
+
+    @Override
+    public void onEvents(ParseEvents events) {
+        final var size = events.size();
+        for (int i = 0; i < size; i++) {
+            switch (events.kind(i)) {
+                case ParseTable.SHIFT -> observer.whenShift(events.status(i), events.token(i));
+                case ParseTable.REDUCE -> observer.whenReduce(events.status(i), events.production(i));
+                case ParseTable.ACCEPT -> observer.whenAccept(events.status(i));
+                default -> throw new RuntimeException("Unknown parse event kind: " + events.kind(i));
+            }
+        }
+    }
+
+    @Override
+    public void setSymbolTable(SymbolTable table) {
+        observer.setSymbolTable(table);
+    }
+}
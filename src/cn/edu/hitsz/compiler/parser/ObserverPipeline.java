@@ -0,0 +1,217 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.parser.table.ParseTable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 在各自的线程上异步运行观察者的事件管线
+ * <br>
+ * 驱动程序 (唯一的生产者) 将动作按 {@link ParseEvents} 的格式写入一个环形缓冲区, 每个观察者 (消费者) 在自己的平台线程上
+ * 按顺序读取全部事件并调用对应的方法. 生产者与各消费者只通过序号通信, 不使用锁:
+ * <ul>
+ *     <li>生产者写完一段事件后以 release 语义发布序号 {@link #published}, 消费者以 acquire 语义读取, 因此能看到发布前写入的全部内容.
+ *     为了减少跨核通信, 生产者每 {@link #PUBLISH_INTERVAL} 个事件才发布一次</li>
+ *     <li>每个消费者处理完一段事件后同样发布自己的序号, 生产者在覆盖某个位置之前必须等到所有消费者都越过它,
+ *     这就是背压: 观察者跟不上时驱动程序会停下来等待</li>
+ *     <li>{@link #drain()} 是一道屏障: 发布全部事件并等待所有消费者处理完毕. 驱动程序在接受与出错时调用它,
+ *     因此 {@link SyntaxAnalyzer#run()} 返回或抛出异常时, 观察者已经看到了与同步分派时相同的全部动作</li>
+ * </ul>
+ * 每个观察者只在自己的线程上被调用, 观察者之间互不可见, 这与 {@link ActionObserver} 的约定一致.
+ * 观察者抛出的异常会在生产者下一次发布或等待时重新抛出.
+ */
+final class ObserverPipeline implements AutoCloseable {
+    private static final int RECORD_SIZE = ParseEvents.RECORD_SIZE;
+    private static final int PUBLISH_INTERVAL = 64;
+
+    /**
+     * 单核机器上自旋等待的线程只会占住唯一的处理器, 不如立即让出
+     */
+    private static final int SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+
+    /**
+     * 环形缓冲区能容纳的事件数
+     */
+    static final int CAPACITY = 4096;
+
+    private final ParseTable table;
+    private final int[] ring = new int[CAPACITY * RECORD_SIZE];
+    private final Token[] tokens = new Token[CAPACITY];
+
+    /**
+     * 已发布的事件数, 由生产者写, 消费者读
+     */
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * 生产者已写入的事件数, 只由生产者访问
+     */
+    private long cursor = 0;
+
+    /**
+     * 生产者上次看到的各消费者序号的最小值, 只由生产者访问
+     */
+    private long consumed = 0;
+
+    private final AtomicLong[] sequences;
+    private final Thread[] threads;
+    private volatile Throwable failure = null;
+    private volatile boolean closed = false;
+
+    ObserverPipeline(List<ActionObserver> observers, ParseTable table) {
+        this.table = table;
+        this.sequences = new AtomicLong[observers.size()];
+        this.threads = new Thread[observers.size()];
+        for (int i = 0; i < observers.size(); i++) {
+            final var observer = observers.get(i);
+            final var sequence = sequences[i] = new AtomicLong();
+            threads[i] = new Thread(() -> consume(observer, sequence), "parse-observer-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    void shift(int state, Token token) {
+        add(ParseTable.SHIFT, state, 0, token);
+    }
+
+    void reduce(int state, int production) {
+        add(ParseTable.REDUCE, state, production, null);
+    }
+
+    void accept(int state) {
+        add(ParseTable.ACCEPT, state, 0, null);
+    }
+
+    /**
+     * 发布全部事件, 并等待所有观察者处理完毕
+     */
+    void drain() {
+        publish();
+        awaitConsumers(cursor);
+        checkFailure();
+    }
+
+    /**
+     * 停止所有观察者线程, 尚未发布的事件被丢弃
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (final var thread : threads) {
+            LockSupport.unpark(thread);
+        }
+        for (final var thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while stopping parse observers", e);
+            }
+        }
+    }
+
+    private void add(int kind, int state, int payload, Token token) {
+        if (cursor - consumed >= CAPACITY) {
+            publish();
+            consumed = Math.min(awaitConsumers(cursor - CAPACITY + 1), cursor);
+        }
+
+        final var slot = (int) cursor & (CAPACITY - 1);
+        final var offset = slot * RECORD_SIZE;
+        ring[offset] = kind;
+        ring[offset + 1] = state;
+        ring[offset + 2] = payload;
+        tokens[slot] = token;
+
+        if (++cursor % PUBLISH_INTERVAL == 0) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        checkFailure();
+        published.setRelease(cursor);
+    }
+
+    /**
+     * @param target 需要所有消费者都达到的序号
+     * @return 各消费者序号的最小值
+     */
+    private long awaitConsumers(long target) {
+        var idle = 0;
+        while (true) {
+            var min = Long.MAX_VALUE;
+            for (final var sequence : sequences) {
+                min = Math.min(min, sequence.getAcquire());
+            }
+            if (min >= target) {
+                return min;
+            }
+
+            checkFailure();
+            idle = idle(idle);
+        }
+    }
+
+    private void checkFailure() {
+        final var cause = failure;
+        if (cause != null) {
+            throw new RuntimeException("Parse observer failed", cause);
+        }
+    }
+
+    private void consume(ActionObserver observer, AtomicLong sequence) {
+        var next = 0L;
+        var idle = 0;
+        try {
+            while (true) {
+                final var available = published.getAcquire();
+                if (available == next) {
+                    if (closed) {
+                        return;
+                    }
+                    idle = idle(idle);
+                    continue;
+                }
+
+                for (; next < available; next++) {
+                    final var slot = (int) next & (CAPACITY - 1);
+                    final var offset = slot * RECORD_SIZE;
+                    final var status = table.status(ring[offset + 1]);
+                    switch (ring[offset]) {
+                        case ParseTable.SHIFT -> observer.whenShift(status, tokens[slot]);
+                        case ParseTable.REDUCE -> observer.whenReduce(status, table.production(ring[offset + 2]));
+                        default -> observer.whenAccept(status);
+                    }
+                }
+                sequence.setRelease(next);
+                idle = 0;
+            }
+        } catch (Throwable e) {
+            failure = e;
+            // 让生产者不再等待这个消费者
+            sequence.setRelease(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * 等待时先自旋, 再让出处理器, 最后短暂休眠, 避免在核数少的机器上空转
+     *
+     * @param idle 已连续等待的次数
+     * @return 新的等待次数
+     */
+    private static int idle(int idle) {
+        if (idle < SPIN_LIMIT) {
+            Thread.onSpinWait();
+        } else if (idle < SPIN_LIMIT + 100) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(20_000);
+        }
+        return idle + 1;
+    }
+}
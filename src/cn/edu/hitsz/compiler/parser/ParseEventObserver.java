@@ -0,0 +1,38 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+
+/**
+ * 按批接收驱动程序动作的观察者
+ * <br>
+ * 与 {@link ActionObserver} 每个动作调用一次不同, 驱动程序先将动作记录到 {@link ParseEvents} 中,
+ * 每攒满一批, 以及在接受或出错时, 才对每个观察者调用一次 {@link #onEvents(ParseEvents)}.
+ * 观察者在自己的循环中处理一批事件, 驱动程序的每一步便不再需要对每个观察者各做一次接口调用.
+ * <br>
+ * 已有的 {@link ActionObserver} 可以经 {@link #of(ActionObserver)} 包装后以这种方式注册, 观察到的动作序列不变.
+ *
+ * @see SyntaxAnalyzer#registerBatchObserver(ParseEventObserver)
+ */
+public interface ParseEventObserver {
+    /**
+     * 处理一批事件
+     *
+     * @param events 按发生顺序排列的事件, 只在本次调用期间有效
+     */
+    void onEvents(ParseEvents events);
+
+    /**
+     * 当驱动程序接受符号表时会调用此函数, 实现此接口的类可以自行决定是否存储这个符号表
+     *
+     * @param table 符号表
+     */
+    void setSymbolTable(SymbolTable table);
+
+    /**
+     * @param observer 逐个接收动作的观察者
+     * @return 将每批事件依次转发给 observer 的观察者
+     */
+    static ParseEventObserver of(ActionObserver observer) {
+        return new ActionObserverAdapter(observer);
+    }
+}
@@ -0,0 +1,149 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.parser.table.ParseTable;
+import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.parser.table.Status;
+
+import java.util.Arrays;
+
+/**
+ * 一批驱动程序动作事件
+ * <br>
+ * 事件按发生顺序紧凑地存放在一个 int 数组中, 每个事件占 {@link #RECORD_SIZE} 个 int: 种类, 状态编号, 载荷.
+ * 种类沿用 {@link ParseTable#SHIFT}, {@link ParseTable#REDUCE} 与 {@link ParseTable#ACCEPT};
+ * 载荷对于移入事件是被移入的词法单元在 {@link #tokens()} 中的下标, 对于规约事件是产生式编号, 对于接受事件为 0.
+ * 状态编号与 {@link ActionObserver} 的约定一致: 移入与接受事件为当前状态, 规约事件为弹出产生式体之后栈顶的状态.
+ * <br>
+ * 同一个对象会在各批之间复用, 观察者不应在 {@link ParseEventObserver#onEvents(ParseEvents)} 返回之后继续持有它或它的数组.
+ *
+ * @see ParseEventObserver
+ */
+public final class ParseEvents {
+    /**
+     * 每个事件占用的 int 数
+     */
+    public static final int RECORD_SIZE = 3;
+
+    private final int[] events;
+    private final Token[] tokens;
+    private final int capacity;
+    private int size = 0;
+    private int tokenCount = 0;
+    private ParseTable table = null;
+
+    ParseEvents(int capacity) {
+        if (capacity <= 0) {
+            throw new RuntimeException("Illegal batch size: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.events = new int[capacity * RECORD_SIZE];
+        this.tokens = new Token[capacity];
+    }
+
+    /**
+     * @return 本批的事件数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 存放事件的数组, 只有前 {@code size() * RECORD_SIZE} 个元素有效, 观察者不应修改
+     */
+    public int[] events() {
+        return events;
+    }
+
+    /**
+     * @return 本批移入的词法单元, 按移入事件的载荷索引
+     */
+    public Token[] tokens() {
+        return tokens;
+    }
+
+    /**
+     * @return 驱动程序使用的分析表, 可用于将编号换回状态与产生式对象
+     */
+    public ParseTable table() {
+        return table;
+    }
+
+    public int kind(int index) {
+        return events[index * RECORD_SIZE];
+    }
+
+    public int state(int index) {
+        return events[index * RECORD_SIZE + 1];
+    }
+
+    public int payload(int index) {
+        return events[index * RECORD_SIZE + 2];
+    }
+
+    /**
+     * @param index 移入事件的下标
+     * @return 被移入的词法单元
+     */
+    public Token token(int index) {
+        return tokens[payload(index)];
+    }
+
+    /**
+     * @param index 事件下标
+     * @return 事件的状态对象
+     */
+    public Status status(int index) {
+        return table.status(state(index));
+    }
+
+    /**
+     * @param index 规约事件的下标
+     * @return 规约的产生式
+     */
+    public Production production(int index) {
+        return table.production(payload(index));
+    }
+
+    /**
+     * 驱动程序开始运行时调用
+     */
+    void begin(ParseTable table) {
+        this.table = table;
+        clear();
+    }
+
+    /**
+     * @return 本批是否已满
+     */
+    boolean shift(int state, Token token) {
+        tokens[tokenCount] = token;
+        return add(ParseTable.SHIFT, state, tokenCount++);
+    }
+
+    boolean reduce(int state, int production) {
+        return add(ParseTable.REDUCE, state, production);
+    }
+
+    boolean accept(int state) {
+        return add(ParseTable.ACCEPT, state, 0);
+    }
+
+    /**
+     * 清空本批, 并释放对词法单元的引用
+     */
+    void clear() {
+        Arrays.fill(tokens, 0, tokenCount, null);
+        size = 0;
+        tokenCount = 0;
+    }
+
+    private boolean add(int kind, int state, int payload) {
+        final var offset = size * RECORD_SIZE;
+        events[offset] = kind;
+        events[offset + 1] = state;
+        events[offset + 2] = payload;
+        return ++size == capacity;
+    }
+}
@@ -0,0 +1,231 @@
+package cn.edu.hitsz.compiler.parser;
+
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.parser.table.ParseTable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * LR 驱动程序的跟踪记录
+ * <br>
+ * 记录驱动程序每一次 action 查表与 goto 查表 (连同当时的状态栈深度), 并统计每条产生式被规约的次数.
+ * 跟踪默认关闭: 驱动程序只有在通过 {@link SyntaxAnalyzer#setTracer(ParseTracer)} 设置了跟踪器时才会调用它,
+ * 未设置时热路径上只多一次空指针判断.
+ * <br>
+ * 有两种记录方式:
+ * <ul>
+ *     <li>{@link #toFile(String)}: 每条记录立即格式化并写入带缓冲的文件, 适合完整地检查一次运行</li>
+ *     <li>{@link #inMemory(int, String)}: 只在内存中的环形缓冲区里保留最近的若干条原始记录, 在出错时才格式化并输出到文件,
+ *     适合在大输入上常开</li>
+ * </ul>
+ */
+public final class ParseTracer {
+    private static final int ACTION = 0;
+    private static final int GOTO = 1;
+
+    /**
+     * 每条记录在环形缓冲区中占用的 int 数: 种类, 栈深度, 状态, 载荷 (编码后的动作或产生式编号), 目标状态
+     */
+    private static final int RECORD_SIZE = 5;
+
+    /**
+     * @param path 输出文件路径
+     * @return 将所有记录写入文件的跟踪器
+     */
+    public static ParseTracer toFile(String path) {
+        try {
+            return new ParseTracer(Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8), 0, path);
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        }
+    }
+
+    /**
+     * @param capacity 保留的记录条数, 至少为 1
+     * @param dumpPath 出错时输出的文件路径
+     * @return 只在内存中保留最近的记录的跟踪器
+     */
+    public static ParseTracer inMemory(int capacity, String dumpPath) {
+        if (capacity < 1) {
+            throw new RuntimeException("Illegal trace capacity: " + capacity);
+        }
+
+        return new ParseTracer(null, capacity, dumpPath);
+    }
+
+    private final BufferedWriter writer;
+    private final String path;
+    private final int[] records;
+    private final Token[] tokens;
+    private final int capacity;
+    private long recorded = 0;
+
+    private ParseTable table = null;
+    private long[] reductions = new long[0];
+    private int maxDepth = 0;
+
+    private ParseTracer(BufferedWriter writer, int capacity, String path) {
+        this.writer = writer;
+        this.path = path;
+        this.capacity = capacity;
+        this.records = new int[capacity * RECORD_SIZE];
+        this.tokens = new Token[capacity];
+    }
+
+    /**
+     * 驱动程序开始运行时调用
+     *
+     * @param table 驱动程序使用的分析表, 用于格式化记录
+     */
+    void begin(ParseTable table) {
+        this.table = table;
+        this.reductions = new long[table.productionCount()];
+        this.maxDepth = 0;
+    }
+
+    /**
+     * 记录一次 action 查表
+     *
+     * @param depth  状态栈深度
+     * @param state  当前状态
+     * @param token  当前词法单元
+     * @param action 查到的编码后的动作
+     */
+    void action(int depth, int state, Token token, int action) {
+        record(ACTION, depth, state, token, action, -1);
+    }
+
+    /**
+     * 记录一次规约及其 goto 查表
+     *
+     * @param depth      弹出产生式体之后的状态栈深度
+     * @param state      弹出产生式体之后栈顶的状态
+     * @param production 规约的产生式编号
+     * @param target     查到的目标状态
+     */
+    void goto_(int depth, int state, int production, int target) {
+        reductions[production]++;
+        record(GOTO, depth, state, null, production, target);
+    }
+
+    private void record(int kind, int depth, int state, Token token, int payload, int target) {
+        maxDepth = Math.max(maxDepth, depth);
+        if (writer != null) {
+            write(format(kind, depth, state, token, payload, target));
+            return;
+        }
+
+        final var slot = (int) (recorded++ % capacity);
+        final var base = slot * RECORD_SIZE;
+        records[base] = kind;
+        records[base + 1] = depth;
+        records[base + 2] = state;
+        records[base + 3] = payload;
+        records[base + 4] = target;
+        tokens[slot] = token;
+    }
+
+    /**
+     * 驱动程序正常结束时调用, 写出规约次数统计并关闭文件
+     */
+    void finish() {
+        if (writer != null) {
+            summary().forEach(this::write);
+            close();
+        }
+    }
+
+    /**
+     * 驱动程序出错时调用. 环形缓冲区模式下此时才输出最近的记录
+     */
+    void fail() {
+        if (writer != null) {
+            close();
+        } else {
+            dump(path);
+        }
+    }
+
+    /**
+     * 将环形缓冲区中的记录与规约次数统计输出到文件
+     *
+     * @param path 输出文件路径
+     */
+    public void dump(String path) {
+        final var lines = new ArrayList<String>();
+        final var count = (int) Math.min(recorded, capacity);
+        for (long i = recorded - count; i < recorded; i++) {
+            final var slot = (int) (i % capacity);
+            final var base = slot * RECORD_SIZE;
+            lines.add(format(records[base], records[base + 1], records[base + 2], tokens[slot],
+                records[base + 3], records[base + 4]));
+        }
+        lines.addAll(summary());
+
+        try {
+            Files.write(Paths.get(path), lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        }
+    }
+
+    /**
+     * @return 规约次数统计, 每条产生式一行, 以及最大栈深度
+     */
+    public List<String> summary() {
+        final var lines = new ArrayList<String>();
+        lines.add("max stack depth: " + maxDepth);
+        for (int production = 0; production < reductions.length; production++) {
+            if (reductions[production] > 0) {
+                lines.add("%d reductions: %s".formatted(reductions[production], table.production(production)));
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * @return 各产生式被规约的次数, 以产生式编号为下标
+     */
+    public long[] reductionCounts() {
+        return Arrays.copyOf(reductions, reductions.length);
+    }
+
+    private String format(int kind, int depth, int state, Token token, int payload, int target) {
+        if (kind == GOTO) {
+            return "[%d] goto %d %s -> %d".formatted(depth, state, table.production(payload).head(), target);
+        }
+
+        final var action = switch (ParseTable.kindOf(payload)) {
+            case ParseTable.SHIFT -> "shift " + ParseTable.payloadOf(payload);
+            case ParseTable.REDUCE -> "reduce " + table.production(ParseTable.payloadOf(payload));
+            case ParseTable.ACCEPT -> "accept";
+            default -> "error";
+        };
+        return "[%d] action %d %s: %s".formatted(depth, state, token, action);
+    }
+
+    private void write(String line) {
+        try {
+            writer.write(line);
+            writer.newLine();
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        }
+    }
+
+    private void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        }
+    }
+}
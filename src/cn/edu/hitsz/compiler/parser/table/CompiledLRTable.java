@@ -0,0 +1,234 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 编译为稠密整数数组的 LR 分析表
+ * <br>
+ * {@link LRTable} 中每个状态的 action 与 goto 都存放在以终结符/非终结符为键的 HashMap 中, 每次查表都需要计算哈希.
+ * 该类将其展开为两张二维表: action 表以 (状态编号, 终结符码点 + 1) 为下标 (EOF 的码点为 -1), goto 表以 (状态编号, 非终结符序号) 为下标.
+ * <br>
+ * action 表中的动作按 {@link ParseTable} 的约定编码, 错误动作恰好为 0, 因此表的空白部分不需要填充. goto 表中的 -1 表示错误.
+ * <br>
+ * 此外还预先计算了每条产生式的头部的非终结符序号与产生式体的长度, 供驱动程序在规约时直接使用.
+ * <br>
+ * 这些数组可以原样写入字节缓冲区并再读回 ({@link #writeTo(ByteBuffer)}, {@link #readFrom(ByteBuffer)}),
+ * 读回的表中的 {@link Status} 只带有编号, 不再带有 action 与 goto 信息.
+ *
+ * @see LRTable#compile()
+ * @see LRTableCache
+ */
+public final class CompiledLRTable implements ParseTable {
+    private final int initState;
+    private final int terminalColumns;
+    private final int nonTerminalColumns;
+    private final int[] actions;
+    private final int[] gotos;
+
+    private final Status[] statuses;
+    private final Production[] productions;
+    private final int[] heads;
+    private final int[] bodyLengths;
+
+    CompiledLRTable(List<Status> statusInIndexOrder, List<TokenKind> terminals, List<NonTerminal> nonTerminals) {
+        final var stateCount = statusInIndexOrder.stream().mapToInt(Status::index).max().orElse(-1) + 1;
+        this.initState = statusInIndexOrder.get(0).index();
+        this.statuses = new Status[stateCount];
+        for (final var status : statusInIndexOrder) {
+            statuses[status.index()] = status;
+        }
+
+        // 非终结符序号: 先按表中 GOTO 列的顺序, 再补上只出现在产生式头部的 (比如拓广文法的开始符号)
+        final Map<NonTerminal, Integer> ordinals = new HashMap<>();
+        for (final var nonTerminal : nonTerminals) {
+            ordinals.putIfAbsent(nonTerminal, ordinals.size());
+        }
+
+        final var grammar = GrammarInfo.getProductionsInOrder();
+        final var maxProduction = grammar.stream().mapToInt(Production::index).max().orElse(0);
+        this.productions = new Production[maxProduction + 1];
+        this.heads = new int[maxProduction + 1];
+        this.bodyLengths = new int[maxProduction + 1];
+        for (final var production : grammar) {
+            productions[production.index()] = production;
+            heads[production.index()] = ordinals.computeIfAbsent(production.head(), key -> ordinals.size());
+            bodyLengths[production.index()] = production.body().size();
+        }
+
+        this.terminalColumns = TokenKind.allAllowedTokenKinds().values().stream()
+            .mapToInt(TokenKind::getCode).max().orElse(0) + 2;
+        this.nonTerminalColumns = ordinals.size();
+        this.actions = new int[stateCount * terminalColumns];
+        this.gotos = new int[stateCount * nonTerminalColumns];
+        Arrays.fill(gotos, -1);
+
+        for (final var status : statusInIndexOrder) {
+            for (final var terminal : terminals) {
+                final var action = status.getAction(terminal);
+                actions[status.index() * terminalColumns + terminal.getCode() + 1] = switch (action.getKind()) {
+                    case Shift -> ParseTable.encode(SHIFT, action.getStatus().index());
+                    case Reduce -> ParseTable.encode(REDUCE, action.getProduction().index());
+                    case Accept -> ParseTable.encode(ACCEPT, 0);
+                    case Error -> ParseTable.encode(ERROR, 0);
+                };
+            }
+
+            for (final var nonTerminal : nonTerminals) {
+                final var goto_ = status.getGoto(nonTerminal);
+                if (!goto_.isError()) {
+                    gotos[status.index() * nonTerminalColumns + ordinals.get(nonTerminal)] = goto_.index();
+                }
+            }
+        }
+    }
+
+    private CompiledLRTable(int initState, int terminalColumns, int nonTerminalColumns,
+                            int[] actions, int[] gotos, int[] heads, int[] bodyLengths) {
+        this.initState = initState;
+        this.terminalColumns = terminalColumns;
+        this.nonTerminalColumns = nonTerminalColumns;
+        this.actions = actions;
+        this.gotos = gotos;
+        this.heads = heads;
+        this.bodyLengths = bodyLengths;
+
+        this.statuses = new Status[actions.length / terminalColumns];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = Status.create(i);
+        }
+
+        this.productions = new Production[heads.length];
+        for (final var production : GrammarInfo.getProductionsInOrder()) {
+            if (production.index() < productions.length) {
+                productions[production.index()] = production;
+            }
+        }
+    }
+
+    /**
+     * @return {@link #writeTo(ByteBuffer)} 写出的字节数
+     */
+    int byteSize() {
+        return Integer.BYTES * (5 + actions.length + gotos.length + heads.length + bodyLengths.length);
+    }
+
+    /**
+     * 将表的全部数组写入缓冲区
+     *
+     * @param buffer 缓冲区, 剩余空间至少为 {@link #byteSize()}
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(initState)
+            .putInt(terminalColumns)
+            .putInt(nonTerminalColumns)
+            .putInt(statuses.length)
+            .putInt(productions.length);
+        final var ints = buffer.asIntBuffer();
+        ints.put(actions).put(gotos).put(heads).put(bodyLengths);
+        buffer.position(buffer.position() + ints.position() * Integer.BYTES);
+    }
+
+    /**
+     * 从缓冲区读回 {@link #writeTo(ByteBuffer)} 写出的表, 产生式对象按编号从 {@link GrammarInfo} 中取得
+     *
+     * @param buffer 缓冲区
+     * @return 读回的表
+     * @throws BufferUnderflowException 缓冲区中的内容不完整或长度非法时
+     */
+    static CompiledLRTable readFrom(ByteBuffer buffer) {
+        final var initState = buffer.getInt();
+        final var terminalColumns = buffer.getInt();
+        final var nonTerminalColumns = buffer.getInt();
+        final var stateCount = buffer.getInt();
+        final var productionCount = buffer.getInt();
+
+        // 损坏的长度在分配数组之前就要发现, 否则可能试图分配极大的数组
+        final var intCount = (long) stateCount * (terminalColumns + (long) nonTerminalColumns) + 2L * productionCount;
+        if (stateCount < 0 || terminalColumns < 0 || nonTerminalColumns < 0 || productionCount < 0
+            || intCount > buffer.remaining() / Integer.BYTES) {
+            throw new BufferUnderflowException();
+        }
+
+        final var actions = new int[stateCount * terminalColumns];
+        final var gotos = new int[stateCount * nonTerminalColumns];
+        final var heads = new int[productionCount];
+        final var bodyLengths = new int[productionCount];
+        final var ints = buffer.asIntBuffer();
+        ints.get(actions).get(gotos).get(heads).get(bodyLengths);
+        buffer.position(buffer.position() + ints.position() * Integer.BYTES);
+
+        return new CompiledLRTable(initState, terminalColumns, nonTerminalColumns, actions, gotos, heads, bodyLengths);
+    }
+
+    @Override
+    public int action(int state, int terminalCode) {
+        return actions[state * terminalColumns + terminalCode + 1];
+    }
+
+    @Override
+    public int gotoState(int state, int nonTerminal) {
+        return gotos[state * nonTerminalColumns + nonTerminal];
+    }
+
+    @Override
+    public int initState() {
+        return initState;
+    }
+
+    @Override
+    public int headOf(int production) {
+        return heads[production];
+    }
+
+    @Override
+    public int bodyLengthOf(int production) {
+        return bodyLengths[production];
+    }
+
+    @Override
+    public Status status(int index) {
+        return statuses[index];
+    }
+
+    @Override
+    public int productionCount() {
+        return productions.length;
+    }
+
+    @Override
+    public Production production(int index) {
+        return productions[index];
+    }
+
+    @Override
+    public long tableBytes() {
+        return (long) Integer.BYTES * (actions.length + gotos.length + heads.length + bodyLengths.length);
+    }
+
+    /**
+     * @return 以默认规约与行位移压缩后的同一张表
+     * @see CompressedLRTable
+     */
+    public CompressedLRTable compress() {
+        return new CompressedLRTable(this);
+    }
+
+    int stateCount() {
+        return statuses.length;
+    }
+
+    int terminalColumns() {
+        return terminalColumns;
+    }
+
+    int nonTerminalColumns() {
+        return nonTerminalColumns;
+    }
+}
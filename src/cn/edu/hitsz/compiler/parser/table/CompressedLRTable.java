@@ -0,0 +1,237 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * 以默认规约与行位移 (row displacement) 压缩的 LR 分析表
+ * <br>
+ * 稠密的 action 表中绝大多数格子是错误动作, 而一个状态中的规约动作又往往都规约同一条产生式. 因此:
+ * <ul>
+ *     <li>每个状态取其出现最多的规约动作作为默认动作, 该状态中等于默认动作的格子, 以及原本为错误的格子, 都不再存放.
+ *     这与 yacc 的做法相同: 对合法的输入, 驱动程序执行的动作序列不变; 对非法的输入, 错误会在若干次规约之后,
+ *     下一次移入之前被发现</li>
+ *     <li>剩余的格子按行 (状态) 叠放进一维数组: 每行选择一个偏移量 base, 使该行的各个格子 base + 列号 落在尚未被占用的位置上,
+ *     再以 check 数组记录每个位置属于哪一行. 查表时若 check 不符, 即说明该格子未被存放, 返回默认动作</li>
+ *     <li>goto 表按列 (非终结符) 以同样的方法叠放, 每列以出现最多的目标状态作为默认值.
+ *     合法的 LR 分析表中, 驱动程序规约后查询的 goto 格子总是有定义的, 因此不需要区分默认值与错误</li>
+ * </ul>
+ * 各数组的末尾都留出了一整行的余量, 查表时不需要检查下标越界.
+ *
+ * @see CompiledLRTable#compress()
+ */
+public final class CompressedLRTable implements ParseTable {
+    private final int initState;
+
+    private final int[] defaultActions;
+    private final int[] actionBase;
+    private final int[] actionValues;
+    private final int[] actionCheck;
+
+    private final int[] defaultGotos;
+    private final int[] gotoBase;
+    private final int[] gotoValues;
+    private final int[] gotoCheck;
+
+    private final Status[] statuses;
+    private final Production[] productions;
+    private final int[] heads;
+    private final int[] bodyLengths;
+
+    CompressedLRTable(CompiledLRTable dense) {
+        final var stateCount = dense.stateCount();
+        final var terminalColumns = dense.terminalColumns();
+        final var nonTerminalColumns = dense.nonTerminalColumns();
+        this.initState = dense.initState();
+
+        // action 表: 每行的默认动作为出现最多的规约动作, 没有规约动作的行默认为错误
+        this.defaultActions = new int[stateCount];
+        final var actionRows = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            final var row = new int[terminalColumns];
+            for (int column = 0; column < terminalColumns; column++) {
+                row[column] = dense.action(state, column - 1);
+            }
+            defaultActions[state] = mostFrequent(row, action -> ParseTable.kindOf(action) == REDUCE, ERROR);
+            actionRows[state] = row;
+        }
+        final var packedActions = pack(actionRows, defaultActions, ERROR);
+        this.actionBase = packedActions.base();
+        this.actionValues = packedActions.values();
+        this.actionCheck = packedActions.check();
+
+        // goto 表按列叠放, 每列的默认值为出现最多的目标状态
+        this.defaultGotos = new int[nonTerminalColumns];
+        final var gotoColumns = new int[nonTerminalColumns][];
+        for (int nonTerminal = 0; nonTerminal < nonTerminalColumns; nonTerminal++) {
+            final var column = new int[stateCount];
+            for (int state = 0; state < stateCount; state++) {
+                column[state] = dense.gotoState(state, nonTerminal);
+            }
+            defaultGotos[nonTerminal] = mostFrequent(column, target -> target >= 0, -1);
+            gotoColumns[nonTerminal] = column;
+        }
+        final var packedGotos = pack(gotoColumns, defaultGotos, -1);
+        this.gotoBase = packedGotos.base();
+        this.gotoValues = packedGotos.values();
+        this.gotoCheck = packedGotos.check();
+
+        this.statuses = IntStream.range(0, stateCount).mapToObj(dense::status).toArray(Status[]::new);
+        this.productions = IntStream.range(0, dense.productionCount()).mapToObj(dense::production)
+            .toArray(Production[]::new);
+        this.heads = IntStream.range(0, productions.length).map(dense::headOf).toArray();
+        this.bodyLengths = IntStream.range(0, productions.length).map(dense::bodyLengthOf).toArray();
+    }
+
+    /**
+     * @param values   一行的各个值
+     * @param eligible 可以作为默认值的值
+     * @param fallback 没有可以作为默认值的值时的默认值
+     * @return 出现最多的可作为默认值的值, 次数相同时取较小者
+     */
+    private static int mostFrequent(int[] values, IntPredicate eligible, int fallback) {
+        final var counts = new HashMap<Integer, Integer>();
+        for (final var value : values) {
+            if (eligible.test(value)) {
+                counts.merge(value, 1, Integer::sum);
+            }
+        }
+
+        return counts.entrySet().stream()
+            .max(Map.Entry.<Integer, Integer>comparingByValue()
+                .thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder())))
+            .map(Map.Entry::getKey)
+            .orElse(fallback);
+    }
+
+    /**
+     * 叠放后的一维数组
+     *
+     * @param base   每行的偏移量
+     * @param values 各位置存放的值
+     * @param check  各位置所属的行, 未被占用的位置为 -1
+     */
+    private record Packed(int[] base, int[] values, int[] check) {
+    }
+
+    /**
+     * 以 first-fit 的方式叠放各行中既不是默认值也不是错误的格子. 格子较多的行更难放下, 因此先放
+     *
+     * @param rows     各行
+     * @param defaults 各行的默认值
+     * @param error    表示错误的值, 查表时以默认值代替
+     * @return 叠放结果
+     */
+    private static Packed pack(int[][] rows, int[] defaults, int error) {
+        final var width = rows.length == 0 ? 0 : rows[0].length;
+        final var entries = new int[rows.length][];
+        for (int row = 0; row < rows.length; row++) {
+            final var values = rows[row];
+            final var fallback = defaults[row];
+            entries[row] = IntStream.range(0, width).filter(column -> values[column] != fallback && values[column] != error).toArray();
+        }
+
+        final var order = IntStream.range(0, rows.length).boxed()
+            .sorted(Comparator.comparingInt((Integer row) -> -entries[row].length).thenComparingInt(row -> row))
+            .mapToInt(Integer::intValue).toArray();
+
+        final var base = new int[rows.length];
+        var check = new int[Math.max(width, 1) * 2];
+        Arrays.fill(check, -1);
+        var used = 0;
+        for (final var row : order) {
+            final var columns = entries[row];
+            var offset = 0;
+            while (!fits(check, columns, offset)) {
+                offset++;
+            }
+
+            final var required = offset + width;
+            if (required > check.length) {
+                final var grown = Arrays.copyOf(check, Math.max(required, check.length * 2));
+                Arrays.fill(grown, check.length, grown.length, -1);
+                check = grown;
+            }
+            for (final var column : columns) {
+                check[offset + column] = row;
+            }
+            base[row] = offset;
+            used = Math.max(used, required);
+        }
+
+        // 保留到最大的 base 之后一整行, 查表时便不会越界
+        check = Arrays.copyOf(check, used);
+        final var values = new int[used];
+        for (int slot = 0; slot < used; slot++) {
+            if (check[slot] >= 0) {
+                values[slot] = rows[check[slot]][slot - base[check[slot]]];
+            }
+        }
+
+        return new Packed(base, values, check);
+    }
+
+    private static boolean fits(int[] check, int[] columns, int offset) {
+        for (final var column : columns) {
+            final var slot = offset + column;
+            if (slot < check.length && check[slot] >= 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int action(int state, int terminalCode) {
+        final var slot = actionBase[state] + terminalCode + 1;
+        return actionCheck[slot] == state ? actionValues[slot] : defaultActions[state];
+    }
+
+    @Override
+    public int gotoState(int state, int nonTerminal) {
+        final var slot = gotoBase[nonTerminal] + state;
+        return gotoCheck[slot] == nonTerminal ? gotoValues[slot] : defaultGotos[nonTerminal];
+    }
+
+    @Override
+    public int initState() {
+        return initState;
+    }
+
+    @Override
+    public int headOf(int production) {
+        return heads[production];
+    }
+
+    @Override
+    public int bodyLengthOf(int production) {
+        return bodyLengths[production];
+    }
+
+    @Override
+    public int productionCount() {
+        return productions.length;
+    }
+
+    @Override
+    public Status status(int index) {
+        return statuses[index];
+    }
+
+    @Override
+    public Production production(int index) {
+        return productions[index];
+    }
+
+    @Override
+    public long tableBytes() {
+        return (long) Integer.BYTES * (defaultActions.length + actionBase.length + actionValues.length
+            + actionCheck.length + defaultGotos.length + gotoBase.length + gotoValues.length + gotoCheck.length
+            + heads.length + bodyLengths.length);
+    }
+}
@@ -32,7 +32,6 @@ public class LRTable {
      * @return 应转移到的状态
      */
     public Status getGoto(Status status, NonTerminal nonTerminal) {
-        System.out.println("Querying " + status.index() + " " + nonTerminal.getTermName());
         return status.getGoto(nonTerminal);
     }
 
@@ -43,6 +42,13 @@ public class LRTable {
         return statusInIndexOrder.get(0);
     }
 
+    /**
+     * @return 编译为稠密数组形式的分析表, 供驱动程序使用
+     */
+    public CompiledLRTable compile() {
+        return new CompiledLRTable(statusInIndexOrder, terminals, nonTerminals);
+    }
+
     public void dumpTable(String path) {
         final var text = new StringBuilder();
         // table head
@@ -0,0 +1,130 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.utils.FilePathConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * LR 分析表的二进制缓存
+ * <br>
+ * 从 CSV 读取分析表需要逐行切分, 逐个单元格解析动作文本, 并按文本查找产生式, 对于每次只编译一个小文件的运行来说这占了启动时间的大头.
+ * 该类将编译好的 {@link CompiledLRTable} 原样写入一个二进制文件, 之后的运行只需一次读取即可得到稠密表.
+ * <br>
+ * 缓存文件的格式为: 魔数, 格式版本, 键 (分析表, 语法文件与编码表三者各自的长度与 CRC32C), 然后是 {@link CompiledLRTable#writeTo} 写出的数组.
+ * 分析表中的终结符码点, 产生式编号与非终结符序号分别来自这三个文件, 因此任意一个文件改动后缓存即失效,
+ * 此时退回到 {@link TableLoader} 读取 CSV, 并重新写出缓存.
+ * <br>
+ * 缓存只用于加速: 缓存无法读取时同样退回到读取 CSV, 无法写出 (如输出目录不存在或只读, 磁盘已满) 时直接返回编译好的表, 都不会使编译失败.
+ * <br>
+ * 键只用于发现文件被改动, 不需要抵御刻意构造的碰撞. 冷启动的 JVM 上初始化并计算一次 SHA-256 就要花费与解析 CSV 相当的时间,
+ * 而 CRC32C 由 JVM 内建实现, 几乎没有开销.
+ */
+public final class LRTableCache {
+    private static final int MAGIC = 0x4c525442; // "LRTB"
+    private static final int VERSION = 1;
+    private static final int KEY_SIZE = 3 * (Long.BYTES + Integer.BYTES);
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + KEY_SIZE;
+
+    /**
+     * 读取分析表, 缓存有效时直接使用缓存, 否则读取 CSV 并更新缓存
+     *
+     * @param csvPath   CSV 格式的分析表路径
+     * @param cachePath 缓存文件路径
+     * @return 编译好的分析表
+     */
+    public static CompiledLRTable load(String csvPath, String cachePath) {
+        final var key = keyOf(csvPath);
+        final var cached = read(Paths.get(cachePath), key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final var table = new TableLoader().load(csvPath).compile();
+        write(Paths.get(cachePath), key, table);
+        return table;
+    }
+
+    /**
+     * @return 缓存有效时为读出的表, 缓存不存在或无法读取, 版本或键不符, 或内容不完整时为 null
+     */
+    private static CompiledLRTable read(Path path, byte[] key) {
+        final byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            return null;
+        }
+
+        final var buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+
+        final var storedKey = new byte[KEY_SIZE];
+        buffer.get(storedKey);
+        if (!Arrays.equals(storedKey, key)) {
+            return null;
+        }
+
+        try {
+            return CompiledLRTable.readFrom(buffer);
+        } catch (RuntimeException e) {
+            // 损坏的缓存可能在读取数组时越界, 也可能读出非法的长度
+            return null;
+        }
+    }
+
+    /**
+     * 写出缓存, 失败时删除临时文件并放弃缓存
+     */
+
+    private static void write(Path path, byte[] key, CompiledLRTable table) {
+        final var buffer = ByteBuffer.allocate(HEADER_SIZE + table.byteSize());
+        buffer.putInt(MAGIC).putInt(VERSION).put(key);
+        table.writeTo(buffer);
+
+        // 先写入临时文件再替换, 避免并发的运行读到写了一半的缓存
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(path.toAbsolutePath().getParent(), "LR1_table", ".tmp");
+            Files.write(temp, buffer.array());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // 临时文件删不掉也不影响本次编译
+                }
+            }
+        }
+    }
+
+    private static byte[] keyOf(String csvPath) {
+        final var key = ByteBuffer.allocate(KEY_SIZE);
+        final var crc = new CRC32C();
+        for (final var path : List.of(csvPath, FilePathConfig.GRAMMAR_PATH, FilePathConfig.CODING_MAP_PATH)) {
+            try {
+                final var bytes = Files.readAllBytes(Paths.get(path));
+                crc.reset();
+                crc.update(bytes);
+                key.putLong(bytes.length).putInt((int) crc.getValue());
+            } catch (IOException e) {
+                throw new RuntimeException("IO Exception on " + path, e);
+            }
+        }
+
+        return key.array();
+    }
+
+    private LRTableCache() {
+    }
+}
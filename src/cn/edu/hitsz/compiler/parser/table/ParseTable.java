@@ -0,0 +1,96 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+/**
+ * 驱动程序所使用的 LR 分析表查表接口
+ * <br>
+ * 状态, 终结符 (以码点表示), 非终结符 (以序号表示) 与产生式都以整数编号. action 查表的结果被编码为一个 int:
+ * 低 2 位为动作种类 ({@link #ERROR}, {@link #SHIFT}, {@link #REDUCE}, {@link #ACCEPT}),
+ * 其余位为载荷 (移入的目标状态编号或规约的产生式编号), 错误动作恰好编码为 0.
+ *
+ * @see CompiledLRTable 稠密数组形式的实现
+ * @see CompressedLRTable 压缩形式的实现
+ */
+public interface ParseTable {
+    int ERROR = 0;
+    int SHIFT = 1;
+    int REDUCE = 2;
+    int ACCEPT = 3;
+
+    /**
+     * @param action 编码后的动作
+     * @return 动作种类
+     */
+    static int kindOf(int action) {
+        return action & 0b11;
+    }
+
+    /**
+     * @param action 编码后的动作
+     * @return 动作的载荷, 移入动作为目标状态编号, 规约动作为产生式编号
+     */
+    static int payloadOf(int action) {
+        return action >>> 2;
+    }
+
+    /**
+     * @param kind    动作种类
+     * @param payload 载荷
+     * @return 编码后的动作
+     */
+    static int encode(int kind, int payload) {
+        return (payload << 2) | kind;
+    }
+
+    /**
+     * @param state        状态编号
+     * @param terminalCode 终结符的码点
+     * @return 编码后的动作
+     */
+    int action(int state, int terminalCode);
+
+    /**
+     * @param state       状态编号
+     * @param nonTerminal 非终结符序号
+     * @return 应转移到的状态编号, 错误时为 -1
+     */
+    int gotoState(int state, int nonTerminal);
+
+    /**
+     * @return 起始状态编号
+     */
+    int initState();
+
+    /**
+     * @param production 产生式编号
+     * @return 产生式头部的非终结符序号
+     */
+    int headOf(int production);
+
+    /**
+     * @param production 产生式编号
+     * @return 产生式体的长度
+     */
+    int bodyLengthOf(int production);
+
+    /**
+     * @return 产生式编号的上界 (不含)
+     */
+    int productionCount();
+
+    /**
+     * @param index 状态编号
+     * @return 对应的状态对象, 供观察者使用
+     */
+    Status status(int index);
+
+    /**
+     * @param index 产生式编号
+     * @return 对应的产生式对象, 供观察者使用
+     */
+    Production production(int index);
+
+    /**
+     * @return 查表所用的各数组占用的字节数, 不含状态与产生式对象
+     */
+    long tableBytes();
+}
@@ -4,16 +4,52 @@ import cn.edu.hitsz.compiler.lexer.TokenKind;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 /**
  * 根据语法文件构造 LR 分析表.
  * <br>
  * 此文件为非必需的框架文件, 用于提升整个编译器处理流程的统一性以及为学生提供 SLR(1) 分析表生成程序的参考. 正常情况下你不需要了解该文件.
+ * <br>
+ * 除 SLR(1) 外, 还可以构造规范 LR(1) 与 LALR(1) 分析表, 见 {@link Mode}. 三者生成的 {@link LRTable} 形式相同, 都可以直接交给驱动程序使用.
+ * <br>
+ * 为了在大文法上也能快速构造, 所有文法符号与所有项目都被预先编号: 项目集是以项目编号为下标的位集, 向前看符号集合是以终结符序号为下标的位集.
+ * 项目集的闭包完全由其核决定, 因此状态只以核判等与哈希; 每个非终结符展开出的项目 (连同其向前看符号) 只计算一次, 求闭包时直接并入即可.
+ * <br>
+ * 项目集族按 BFS 的层次逐层构造, 同一层各状态的后继与新状态的闭包互不依赖, 可以通过 {@link #runParallel(ForkJoinPool)} 并行计算.
+ * 新状态总是在按状态编号与文法符号编号的顺序依次登记时才被编号, 因此无论是否并行, 使用多少线程, 得到的状态编号都与顺序构造时完全相同.
  */
 public class TableGenerator {
+    /**
+     * 分析表的构造方法
+     */
+    public enum Mode {
+        /**
+         * 在 LR(0) 项目集族上以 follow 集合决定规约
+         */
+        SLR,
+
+        /**
+         * 构造带向前看符号的 LR(1) 项目集族, 状态数可能远多于 LR(0)
+         */
+        LR1,
+
+        /**
+         * 在 LR(0) 项目集族的核上计算自发生成与传播的向前看符号, 状态数与 LR(0) 相同
+         */
+        LALR
+    }
+
     public TableGenerator() {
+        this(Mode.SLR);
+    }
+
+    public TableGenerator(Mode mode) {
+        this.mode = mode;
         this.productions = GrammarInfo.getProductionsInOrder();
         this.terminals = new HashSet<>(TokenKind.allAllowedTokenKinds().values());
         this.nonTerminals = new HashSet<>(GrammarInfo.getNonTerminals().values());
@@ -21,29 +57,104 @@ public class TableGenerator {
         if (productions.get(0).body().size() != 1) {
             throw new RuntimeException("The first production in grammar file must like S -> S'");
         }
+
+        // 文法符号编号: 先是非终结符, 然后是终结符; 状态也按这个顺序依次求后继
+        terms.addAll(nonTerminals);
+        terms.addAll(terminals);
+        for (int id = 0; id < terms.size(); id++) {
+            termIds.put(terms.get(id), id);
+        }
+        this.nonTerminalCount = nonTerminals.size();
+        this.terminalCount = terminals.size();
+        this.marker = terminalCount;
+
+        // 项目编号: 每条产生式的各个项目连续编号, 于是项目 i 的后继项目就是 i + 1
+        this.itemBase = new int[productions.size()];
+        var itemCount = 0;
+        for (int p = 0; p < productions.size(); p++) {
+            itemBase[p] = itemCount;
+            itemCount += productions.get(p).body().size() + 1;
+        }
+
+        this.itemProduction = new int[itemCount];
+        this.itemDot = new int[itemCount];
+        this.itemAfterDot = new int[itemCount];
+        final var productionsOfHead = new ArrayList<List<Integer>>();
+        for (int nt = 0; nt < nonTerminalCount; nt++) {
+            productionsOfHead.add(new ArrayList<>());
+        }
+        for (int p = 0; p < productions.size(); p++) {
+            final var body = productions.get(p).body();
+            for (int dot = 0; dot <= body.size(); dot++) {
+                final var item = itemBase[p] + dot;
+                itemProduction[item] = p;
+                itemDot[item] = dot;
+                itemAfterDot[item] = dot < body.size() ? termIds.get(body.get(dot)) : -1;
+            }
+            productionsOfHead.get(termIds.get(productions.get(p).head())).add(p);
+        }
+
+        this.productionsOf = new int[nonTerminalCount][];
+        for (int nt = 0; nt < nonTerminalCount; nt++) {
+            productionsOf[nt] = productionsOfHead.get(nt).stream().mapToInt(Integer::intValue).toArray();
+        }
     }
 
     /**
      * 主体方法
      */
     public void run() {
+        pool = null;
+        generate();
+    }
+
+    /**
+     * 与 {@link #run()} 相同, 但在给定的线程池中并行构造项目集族, 结果与 {@link #run()} 完全相同
+     *
+     * @param pool 线程池
+     */
+    public void runParallel(ForkJoinPool pool) {
+        this.pool = pool;
+        try {
+            generate();
+        } finally {
+            this.pool = null;
+        }
+    }
+
+    private void generate() {
         calcFirst();
         calcFollow();
-        constructDFA();
-        dumpItems();
+        calcExpansions();
+        switch (mode) {
+            case SLR -> constructDFA();
+            case LR1 -> constructLR1DFA();
+            case LALR -> {
+                constructDFA();
+                calcLALRLookaheads();
+            }
+        }
         genTable();
     }
 
     /**
-     * 将该分析表生成的 LR(0) 规范集族打印到某个文件之中, 用于调试
+     * 将该分析表生成的规范项目集族打印到某个文件之中, 用于调试. 需在 {@link #run()} 之后调用
      */
     public void dumpItems() {
         final var lines = new ArrayList<String>();
         for (final var status : allStatusInIndexOrder) {
             lines.add("%d: ".formatted(status.index()));
-            for (final var item : including.get(status)) {
-                lines.add("    " + item);
-            }
+            final var statusLookaheads = lookaheads.isEmpty() ? null : lookaheads.get(status.index());
+            closures.get(status.index()).stream().forEach(item -> {
+                final var text = new Item(productions.get(itemProduction[item]), itemDot[item]).toString();
+                if (statusLookaheads == null) {
+                    lines.add("    " + text);
+                } else {
+                    final var names = statusLookaheads.of(item).stream()
+                        .mapToObj(t -> terms.get(nonTerminalCount + t).toString()).toList();
+                    lines.add("    %s, %s".formatted(text, names));
+                }
+            });
         }
 
         FileUtils.writeLines("data/out/items.txt", lines);
@@ -56,129 +167,175 @@ public class TableGenerator {
         return new LRTable(allStatusInIndexOrder, new ArrayList<>(terminals), new ArrayList<>(nonTerminals));
     }
 
+    private final Mode mode;
     private final List<Production> productions;
     private final Set<TokenKind> terminals;
     private final Set<NonTerminal> nonTerminals;
 
-    private final Map<Term, Set<TokenKind>> first = new HashMap<>();
-    private final Map<Term, Set<TokenKind>> follow = new HashMap<>();
+    private final List<Term> terms = new ArrayList<>();
+    private final Map<Term, Integer> termIds = new HashMap<>();
+    private final int nonTerminalCount;
+    private final int terminalCount;
 
-    private final Set<Term> visited = new HashSet<>();
+    /**
+     * 向前看符号位集中的 "传播标记" 位, 紧接在所有终结符之后. 带有该标记的项目会继承外层项目的向前看符号
+     */
+    private final int marker;
 
     /**
-     * 计算所有符号的 first 集合 <br>
-     * 终结符的 first 就是它自身, 非终结符的 first 则递归计算
+     * 以产生式在文法中的序号为下标, 其第一个项目 (点在开头) 的编号
      */
-    private void calcFirst() {
-        for (final var terminal : terminals) {
-            first.put(terminal, Set.of(terminal));
-        }
+    private final int[] itemBase;
 
-        for (final var nonTerminal : nonTerminals) {
-            visited.clear();
-            calcFirst(nonTerminal);
-        }
+    /**
+     * 以项目编号为下标: 所属产生式的序号, 点的位置, 点后面的文法符号编号 (点在末尾时为 -1)
+     */
+    private final int[] itemProduction;
+    private final int[] itemDot;
+    private final int[] itemAfterDot;
 
-    }
+    /**
+     * 以非终结符编号为下标, 以其为头的产生式的序号
+     */
+    private final int[][] productionsOf;
 
     /**
-     * 递归计算特定非终结符的 first
-     *
-     * @param nonTerminal 非终结符
-     * @return 其 first 集合
-     */
-    private Set<TokenKind> calcFirst(Term nonTerminal) {
-        // 如果已经被计算, 则直接返回缓存的结果
-        if (first.containsKey(nonTerminal)) {
-            return first.get(nonTerminal);
-        }
-
-        final var result = new LinkedHashSet<TokenKind>();
-        for (final var production : productions) {
-            if (nonTerminal == production.head()) {
-                // 在文法中寻找以该非终结符为头的产生式
-                final var firstSymbol = production.body().get(0);
-                // 记录已经在栈中的递归过的非终结符, 防止直接或间接的左递归导致程序死循环
-                if (!visited.contains(firstSymbol)) {
-                    // 随后递归查找该产生式体的第一个文法符号的 first 集合
-                    // 它的 first 集合也是该非终结符的 first 集合
-                    visited.add(firstSymbol);
-                    result.addAll(calcFirst(firstSymbol));
-                }
+     * 以文法符号编号为下标的 first 集合与 follow 集合, 均为终结符序号的位集
+     */
+    private BitSet[] first;
+    private BitSet[] follow;
+
+    /**
+     * 计算所有符号的 first 集合 <br>
+     * 终结符的 first 就是它自身; 文法中没有空产生式, 所以非终结符的 first 就是各产生式体第一个符号的 first 之并, 迭代到不动点即可
+     */
+    private void calcFirst() {
+        first = new BitSet[terms.size()];
+        for (int id = 0; id < terms.size(); id++) {
+            first[id] = new BitSet(terminalCount);
+            if (id >= nonTerminalCount) {
+                first[id].set(id - nonTerminalCount);
             }
         }
 
-        first.put(nonTerminal, result);
-        return result;
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < productions.size(); p++) {
+                final var head = termIds.get(productions.get(p).head());
+                changed |= addAll(first[head], first[itemAfterDot[itemBase[p]]]);
+            }
+        }
     }
 
-
     /**
-     * 计算所有非终结符的 follow 集合
+     * 计算所有非终结符的 follow 集合 <br>
+     * 开始符号的 follow 为 EOF. 对每个 A -> alpha B beta, first(beta) 属于 follow(B); 对每个 A -> alpha B, follow(A) 属于 follow(B)
      */
     private void calcFollow() {
-        for (final var nonTerminal : nonTerminals) {
-            visited.clear();
-            calcFollow(nonTerminal);
+        final var eof = termIds.get(TokenKind.eof()) - nonTerminalCount;
+        follow = new BitSet[nonTerminalCount];
+        for (int nt = 0; nt < nonTerminalCount; nt++) {
+            follow[nt] = new BitSet(terminalCount);
+        }
+        follow[termIds.get(productions.get(0).head())].set(eof);
+
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (int item = 0; item < itemAfterDot.length; item++) {
+                final var symbol = itemAfterDot[item];
+                if (symbol < 0 || symbol >= nonTerminalCount) {
+                    continue;
+                }
+
+                final var next = itemAfterDot[item + 1];
+                final var head = termIds.get(productions.get(itemProduction[item]).head());
+                changed |= addAll(follow[symbol], next >= 0 ? first[next] : follow[head]);
+            }
         }
 
         // 对于找完所有产生式了都还没没有 follow 的非终结符
         // 它必然是一个没有被使用的非终结符, 这意味着它的 follow 就是 EOF
-        nonTerminals.stream()
-            .map(follow::get).filter(Set::isEmpty)
-            .forEach(set -> set.add(TokenKind.eof()));
+        for (final var set : follow) {
+            if (set.isEmpty()) {
+                set.set(eof);
+            }
+        }
     }
 
     /**
-     * 递归计算给定非终结符的 follow 集合
-     *
-     * @param nonTerminal 给定的非终止符
-     * @return 其 follow 集合
+     * 以非终结符编号为下标: 展开该非终结符 (即对 [X -> alpha . A beta] 求闭包时加入) 的全部项目
      */
-    private Set<TokenKind> calcFollow(NonTerminal nonTerminal) {
-        // 与 first 类似, 先查找缓存
-        if (follow.containsKey(nonTerminal)) {
-            return follow.get(nonTerminal);
-        }
+    private BitSet[] expansions;
 
-        final var result = new LinkedHashSet<TokenKind>();
-        for (final var production : productions) {
-            final var body = production.body();
+    /**
+     * 以非终结符编号为下标: 展开该非终结符时所涉及的各个非终结符, 以及它们的产生式所得到的向前看符号.
+     * 带有传播标记的向前看符号集合还要并上外层项目的 first(beta a)
+     */
+    private int[][] expansionHeads;
+    private BitSet[][] expansionLookaheads;
 
-            // 对该非终结符在每条产生式体中的可能出现, 我们都要将紧跟在该出现后面的项的 first 加入其 follow 集合
-            // 我们直接枚举每条产生式体的每个项
-            for (int i = 0; i < body.size() - 1; i++) {
-                // 如果发现目前的 curr 的话, 后面跟着的符号的 first 就是它的 follow
-                final var symbol = body.get(i);
-                final var next = body.get(i + 1);
+    /**
+     * 对每个非终结符预先计算一次其展开, 此后求任何项集的闭包都只需将核中各项目点后面的非终结符的展开并入, 不再需要迭代
+     */
+    private void calcExpansions() {
+        expansions = new BitSet[nonTerminalCount];
+        expansionHeads = new int[nonTerminalCount][];
+        expansionLookaheads = new BitSet[nonTerminalCount][];
+
+        final var lookahead = new BitSet[nonTerminalCount];
+        for (int root = 0; root < nonTerminalCount; root++) {
+            final var reached = new ArrayList<Integer>();
+            final var queued = new BitSet(nonTerminalCount);
+            final var unexpanded = new ArrayDeque<Integer>();
+
+            lookahead[root] = new BitSet();
+            lookahead[root].set(marker);
+            reached.add(root);
+            queued.set(root);
+            unexpanded.add(root);
+
+            // [C -> . X delta] 使 X 的产生式得到 first(delta), delta 为空时则继承 C 的产生式的向前看符号
+            while (!unexpanded.isEmpty()) {
+                final var head = unexpanded.pollFirst();
+                queued.clear(head);
+                for (final var p : productionsOf[head]) {
+                    final var symbol = itemAfterDot[itemBase[p]];
+                    if (symbol >= nonTerminalCount) {
+                        continue;
+                    }
 
-                if (symbol.equals(nonTerminal)) {
-                    result.addAll(first.get(next));
+                    final var next = itemAfterDot[itemBase[p] + 1];
+                    final var isNew = lookahead[symbol] == null;
+                    if (isNew) {
+                        lookahead[symbol] = new BitSet();
+                        reached.add(symbol);
+                    }
+                    final var changed = addAll(lookahead[symbol], next >= 0 ? first[next] : lookahead[head]);
+                    if ((isNew || changed) && !queued.get(symbol)) {
+                        queued.set(symbol);
+                        unexpanded.addLast(symbol);
+                    }
                 }
             }
 
-            // 如果该非终结符出现在产生式的末尾, 那么该产生式的头的 follow 集合也要加入其 follow 集合中
-            final var lastInBody = body.get(body.size() - 1);
-            if (lastInBody.equals(nonTerminal)) {
-                final var head = production.head();
-                if (visited.contains(head)) {
-                    // 如果该产生式头已经在栈中了, 那么意味着这个非终结符有可能一直展开自己
-                    // 这时候 EOF 也可能是它的 Follow
-                    result.add(TokenKind.eof());
-                } else {
-                    // 否则直接递归查找
-                    visited.add(head);
-                    result.addAll(calcFollow(head));
+            expansions[root] = new BitSet();
+            expansionHeads[root] = reached.stream().mapToInt(Integer::intValue).toArray();
+            expansionLookaheads[root] = new BitSet[reached.size()];
+            for (int i = 0; i < reached.size(); i++) {
+                final var head = reached.get(i);
+                for (final var p : productionsOf[head]) {
+                    expansions[root].set(itemBase[p]);
                 }
+                expansionLookaheads[root][i] = lookahead[head];
+                lookahead[head] = null;
             }
         }
-
-        follow.put(nonTerminal, result);
-        return result;
     }
 
     /**
-     * 表示一个项目
+     * 表示一个项目, 只用于输出
      * <br>
      * 对于 A -> B . C, 其 production 为 A -> B C, dot 为 1 (其下一个项 C 的索引) <br>
      * 对于 A -> B C ., 其 production 为 A -> B C, dot 为 2 (其产生式体的项数量) <br>
@@ -187,35 +344,6 @@ public class TableGenerator {
      * @param dot        目前解析到的位置
      */
     private record Item(Production production, int dot) {
-        /**
-         * @return 点的位置是否在产生式的末尾
-         */
-        public boolean isDotAtEnd() {
-            return production.body().size() == dot;
-        }
-
-        /**
-         * @return 获得点后面的文法符号; 若点的位置在末尾则返回空
-         */
-        public Optional<Term> getAfterDot() {
-            if (isDotAtEnd()) {
-                return Optional.empty();
-            } else {
-                return Optional.of(production.body().get(dot));
-            }
-        }
-
-        /**
-         * @return 获得当前项目的后继项; 若点的位置在末尾则返回空
-         */
-        public Optional<Item> getNextItem() {
-            if (isDotAtEnd()) {
-                return Optional.empty();
-            } else {
-                return Optional.of(new Item(production, dot + 1));
-            }
-        }
-
         @Override
         public String toString() {
             final var builder = new StringBuilder();
@@ -239,169 +367,464 @@ public class TableGenerator {
         }
     }
 
-    private final Map<Set<Item>, Status> belongTo = new HashMap<>();
-    private final Map<Status, Set<Item>> including = new HashMap<>();
+    /**
+     * 带向前看符号的项集
+     *
+     * @param items      升序排列的项目编号
+     * @param lookaheads 对应项目的向前看符号集合
+     */
+    private record ItemLookaheads(int[] items, BitSet[] lookaheads) {
+        /**
+         * @param item 项目编号
+         * @return 该项目的向前看符号集合
+         */
+        BitSet of(int item) {
+            return lookaheads[Arrays.binarySearch(items, item)];
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ItemLookaheads other
+                && Arrays.equals(items, other.items)
+                && Arrays.equals(lookaheads, other.lookaheads);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(items) + Arrays.hashCode(lookaheads);
+        }
+    }
+
     private final List<Status> allStatusInIndexOrder = new ArrayList<>();
 
     /**
-     * 构造出所有状态并维护状态与项集之间的对应关系
+     * 以状态编号为下标: 项集的核与闭包 (项目编号的位集), 以及以文法符号编号为下标的后继状态编号 (没有后继时为 -1)
      */
-    private void constructDFA() {
-        final var argumentProduction = productions.get(0);
-        final var initItem = new Item(argumentProduction, 0);
-        final var collections = constructCanonicalLRCollection(initItem);
+    private final List<BitSet> kernels = new ArrayList<>();
+    private final List<BitSet> closures = new ArrayList<>();
+    private final List<int[]> transitions = new ArrayList<>();
 
-        for (int idx = 0; idx < collections.size(); idx++) {
-            final var status = Status.create(idx);
-            allStatusInIndexOrder.add(status);
+    /**
+     * LR(1) 与 LALR(1) 模式下以状态编号为下标, 各状态闭包中每个项目的向前看符号集合; SLR 模式下为空
+     */
+    private final List<ItemLookaheads> lookaheads = new ArrayList<>();
 
-            final var items = collections.get(idx);
-            including.put(status, items);
-            belongTo.put(items, status);
+    /**
+     * 并行构造时使用的线程池, 顺序构造时为 null
+     */
+    private ForkJoinPool pool = null;
+
+    /**
+     * 并行构造时每个线程平均分到的任务数, 多于一个以平衡各任务的工作量
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * 并行构造时每个任务至少处理的状态数, 过小的任务不值得调度
+     */
+    private static final int MIN_STATES_PER_TASK = 16;
+
+    /**
+     * 对 [begin, end) 中的每个状态编号求值, 有线程池时分块并行计算
+     *
+     * @param begin    起始状态编号
+     * @param end      结束状态编号 (不含)
+     * @param function 对单个状态求值的函数, 必须不修改共享的状态
+     * @return 按状态编号顺序排列的结果
+     */
+    private <T> List<T> mapStatus(int begin, int end, IntFunction<T> function) {
+        final var result = new ArrayList<T>(end - begin);
+        if (pool == null || end - begin <= MIN_STATES_PER_TASK) {
+            for (int idx = begin; idx < end; idx++) {
+                result.add(function.apply(idx));
+            }
+            return result;
         }
+
+        final var taskSize = Math.max(MIN_STATES_PER_TASK,
+            (end - begin + pool.getParallelism() * TASKS_PER_THREAD - 1) / (pool.getParallelism() * TASKS_PER_THREAD));
+        final var tasks = new ArrayList<ForkJoinTask<List<T>>>();
+        for (int taskBegin = begin; taskBegin < end; taskBegin += taskSize) {
+            final var from = taskBegin;
+            final var to = Math.min(taskBegin + taskSize, end);
+            tasks.add(pool.submit(() -> {
+                final var part = new ArrayList<T>(to - from);
+                for (int idx = from; idx < to; idx++) {
+                    part.add(function.apply(idx));
+                }
+                return part;
+            }));
+        }
+
+        for (final var task : tasks) {
+            result.addAll(task.join());
+        }
+        return result;
     }
 
     /**
-     * @param head 头部符号
-     * @return 返回一个流, 其中的元素都是以 head 为头的产生式
+     * 一个状态关于各文法符号的后继
+     *
+     * @param to      以文法符号编号为下标的后继状态编号, 没有后继时为 -1, 后继尚未登记时为 -2
+     * @param kernels 以文法符号编号为下标的后继项集的核
      */
-    private Stream<Production> getProductionsByHead(Term head) {
-        return productions.stream().filter(production -> production.head().equals(head));
+    private record Successors<K>(int[] to, List<K> kernels) {
     }
 
     /**
-     * 构造项集 {@code sourceItem} 的闭包, 相当于理论课中的 CLOSURE(I) 函数
+     * 以 BFS 的层次逐层构造规范项目集族, 相当于理论课中对每个项集 I 与文法符号 X 反复求 GO(I, X) 直到不再产生新项集
+     * <br>
+     * 每一层分三步: 先 (并行地) 对本层的每个状态求出各后继的核, 并在状态表中查出已有的后继;
+     * 再按状态编号与文法符号编号的顺序依次登记本层新发现的核, 这与逐个状态顺序构造时的编号顺序一致;
+     * 最后 (并行地) 对新状态求闭包, 它们构成下一层.
      *
-     * @param sourceItem 项集 I
-     * @return 闭包
+     * @param initKernel     起始项集的核
+     * @param kernelsOut     按状态编号记录各状态的核
+     * @param closureOf      由核求闭包
+     * @param kernelsForGoto 由闭包求以文法符号编号为下标的各后继的核, 没有后继的为 null
+     * @return 按状态编号排列的各状态的闭包
      */
-    private Set<Item> constructClosure(Set<Item> sourceItem) {
-        // 采用 BFS 的方法来避免每次都检测集合的更改
-        final var result = new LinkedHashSet<>(sourceItem);
-        // 已经找到, 但是还未完全探索其能展开的项的项
-        // 类似于 BFS 的队列或者是 mark-and-sweep GC 算法里的灰色列表
-        final var unexpanded = new ArrayDeque<>(sourceItem);
-
-        while (!unexpanded.isEmpty()) {
-            final var top = unexpanded.pollFirst();
-            // 获得当前项中点后面的符号
-            top.getAfterDot().ifPresent(afterDot ->
-                // 随后查找以该符号作为头部的产生式
-                getProductionsByHead(afterDot)
-                    // 构造点在对应产生式开头的新项
-                    .map(production -> new Item(production, 0))
-                    // 对于不在 result 中的新项
-                    .filter(item -> !result.contains(item))
-                    // 加入队列并加入结果中
-                    .peek(unexpanded::add)
-                    .forEach(result::add));
+    private <K, C> List<C> constructCollection(K initKernel, List<K> kernelsOut,
+                                               Function<K, C> closureOf, Function<C, List<K>> kernelsForGoto) {
+        final var statusOfKernel = new ConcurrentHashMap<K, Integer>();
+        final var result = new ArrayList<C>();
+        kernelsOut.add(initKernel);
+        statusOfKernel.put(initKernel, 0);
+        result.add(closureOf.apply(initKernel));
+
+        var levelBegin = 0;
+        while (levelBegin < kernelsOut.size()) {
+            final var levelEnd = kernelsOut.size();
+            final var successors = mapStatus(levelBegin, levelEnd, idx -> {
+                final var kernels = kernelsForGoto.apply(result.get(idx));
+                final var to = new int[kernels.size()];
+                for (int symbol = 0; symbol < to.length; symbol++) {
+                    final var kernel = kernels.get(symbol);
+                    to[symbol] = kernel == null ? -1 : statusOfKernel.getOrDefault(kernel, -2);
+                }
+                return new Successors<>(to, kernels);
+            });
+
+            for (final var successor : successors) {
+                final var to = successor.to();
+                for (int symbol = 0; symbol < to.length; symbol++) {
+                    if (to[symbol] == -2) {
+                        final var kernel = successor.kernels().get(symbol);
+                        to[symbol] = statusOfKernel.computeIfAbsent(kernel, key -> {
+                            kernelsOut.add(key);
+                            return kernelsOut.size() - 1;
+                        });
+                    }
+                }
+                transitions.add(to);
+            }
+
+            result.addAll(mapStatus(levelEnd, kernelsOut.size(), idx -> closureOf.apply(kernelsOut.get(idx))));
+            levelBegin = levelEnd;
         }
 
+        for (int idx = 0; idx < kernelsOut.size(); idx++) {
+            allStatusInIndexOrder.add(Status.create(idx));
+        }
+        return result;
+    }
+
+    /**
+     * 构造 LR(0) 规范项目集族
+     */
+    private void constructDFA() {
+        final var initKernel = new BitSet();
+        initKernel.set(itemBase[0]);
+        closures.addAll(constructCollection(initKernel, kernels, this::constructClosure, this::constructKernelsForGoto));
+    }
+
+    /**
+     * 构造项集的闭包, 相当于理论课中的 CLOSURE(I) 函数
+     *
+     * @param kernel 项集 I 的核
+     * @return 闭包
+     */
+    private BitSet constructClosure(BitSet kernel) {
+        final var result = (BitSet) kernel.clone();
+        kernel.stream().forEach(item -> {
+            final var symbol = itemAfterDot[item];
+            if (symbol >= 0 && symbol < nonTerminalCount) {
+                result.or(expansions[symbol]);
+            }
+        });
+
         return result;
     }
 
     /**
-     * 相当于理论课中的 GO(I, X) 函数 (转移函数)
+     * 对每个文法符号 X 求 GO(I, X) 的核
      *
-     * @param items 当前项集 I
-     * @param term  文法符号 X
-     * @return I 关于 X 的后继项目集
-     */
-    private Set<Item> constructGoto(Set<Item> items, Term term) {
-        final var kernelForGoto = items.stream()
-            // 先筛选出 I 中所有点后面是 term 的项
-            .filter(item -> item.getAfterDot().map(term::equals).orElse(false))
-            // 然后分别求出每一个项的后继项
-            // 这个项集就是后继项目集的核
-            .map(Item::getNextItem).flatMap(Optional::stream)
-            .collect(Collectors.toSet());
-
-        // 随后从后继项目集的核中构造闭包即可得到后继项目集
-        return constructClosure(kernelForGoto);
+     * @param closure 项集 I
+     * @return 以文法符号编号为下标的后继项集的核, 没有后继的为 null
+     */
+    private List<BitSet> constructKernelsForGoto(BitSet closure) {
+        // 点后面是 X 的项目的后继项目, 就是 GO(I, X) 的核
+        final var kernelForGoto = new BitSet[terms.size()];
+        closure.stream().forEach(item -> {
+            final var symbol = itemAfterDot[item];
+            if (symbol >= 0) {
+                if (kernelForGoto[symbol] == null) {
+                    kernelForGoto[symbol] = new BitSet();
+                }
+                kernelForGoto[symbol].set(item + 1);
+            }
+        });
+
+        return Arrays.asList(kernelForGoto);
     }
 
     /**
-     * 构造 LR(0) 规范项目集族
+     * 构造带向前看符号的项集的闭包, 即 LR(1) 的 CLOSURE(I)
+     * <br>
+     * 对于 [A -> alpha . B beta, a], 展开 B 所得的各产生式的向前看符号已预先算好, 其中带有传播标记的还要并上 FIRST(beta a).
+     * 文法中没有空产生式, 因此 beta 非空时 FIRST(beta a) 就是 FIRST(beta) 的第一个符号的 first 集合, 否则就是 {a}.
+     * 核中的向前看符号也可以带有传播标记, 这时标记会原样出现在继承它的项目中, 用于计算 LALR(1) 的传播关系.
      *
-     * @param initItem 起始项目 S -> . S'
-     * @return 规范项目集族
+     * @param kernel 核项目及其向前看符号集合
+     * @return 闭包中的每个项目及其向前看符号集合
      */
-    private List<Set<Item>> constructCanonicalLRCollection(Item initItem) {
-        // 先收集所有的文法符号备用
-        final var terms = new LinkedHashSet<Term>();
-        terms.addAll(nonTerminals);
-        terms.addAll(terminals);
+    private ItemLookaheads constructClosure(ItemLookaheads kernel) {
+        final var result = new TreeMap<Integer, BitSet>();
+        for (int k = 0; k < kernel.items().length; k++) {
+            result.computeIfAbsent(kernel.items()[k], key -> new BitSet()).or(kernel.lookaheads()[k]);
+        }
+
+        for (int k = 0; k < kernel.items().length; k++) {
+            final var item = kernel.items()[k];
+            final var symbol = itemAfterDot[item];
+            if (symbol < 0 || symbol >= nonTerminalCount) {
+                continue;
+            }
+
+            final var next = itemAfterDot[item + 1];
+            final var inherited = next >= 0 ? first[next] : kernel.lookaheads()[k];
+            final var heads = expansionHeads[symbol];
+            for (int i = 0; i < heads.length; i++) {
+                var lookahead = expansionLookaheads[symbol][i];
+                if (lookahead.get(marker)) {
+                    lookahead = (BitSet) lookahead.clone();
+                    lookahead.clear(marker);
+                    lookahead.or(inherited);
+                }
 
-        // 构造初始项目集族
-        final var initClosure = constructClosure(Set.of(initItem));
-
-        // 同样以 BFS 形式搜索
-        final var result = new LinkedHashSet<>(Set.of(initClosure));
-        final var unexpanded = new ArrayDeque<>(Set.of(initClosure));
-
-        while (!unexpanded.isEmpty()) {
-            final var items = unexpanded.pollFirst();
-
-            // 对于每个未被探索的集族
-            for (final var term : terms) {
-                // 尝试对每一个文法符号都求一个后继项目集
-                final var to = constructGoto(items, term);
-                // 如果还没被加入到 result 中
-                if (!to.isEmpty() && !result.contains(to)) {
-                    // 就加入 result 和待探索列表中
-                    result.add(to);
-                    unexpanded.addLast(to);
+                for (final var p : productionsOf[heads[i]]) {
+                    result.computeIfAbsent(itemBase[p], key -> new BitSet()).or(lookahead);
                 }
             }
         }
 
-        return new ArrayList<>(result);
+        return new ItemLookaheads(
+            result.keySet().stream().mapToInt(Integer::intValue).toArray(),
+            result.values().toArray(new BitSet[0]));
+    }
+
+    /**
+     * 构造规范 LR(1) 项目集族, 项目集以其核 (连同向前看符号) 判等
+     */
+    private void constructLR1DFA() {
+        final var initLookahead = new BitSet();
+        initLookahead.set(termIds.get(TokenKind.eof()) - nonTerminalCount);
+        final var initKernel = new ItemLookaheads(new int[]{itemBase[0]}, new BitSet[]{initLookahead});
+        lookaheads.addAll(constructCollection(initKernel, new ArrayList<>(),
+            this::constructClosure, this::constructKernelsForGoto));
+
+        closures.addAll(mapStatus(0, lookaheads.size(), idx -> {
+            final var items = new BitSet();
+            for (final var item : lookaheads.get(idx).items()) {
+                items.set(item);
+            }
+            return items;
+        }));
+    }
+
+    /**
+     * 对每个文法符号 X 求 LR(1) 的 GO(I, X) 的核
+     *
+     * @param closure 项集 I (已闭包)
+     * @return 以文法符号编号为下标的后继项集的核, 没有后继的为 null
+     */
+    private List<ItemLookaheads> constructKernelsForGoto(ItemLookaheads closure) {
+        final var items = closure.items();
+
+        // 按点后面的文法符号分组, 每组项目的后继项目连同原有的向前看符号就是后继项集的核
+        final var groupSize = new int[terms.size()];
+        for (final var item : items) {
+            if (itemAfterDot[item] >= 0) {
+                groupSize[itemAfterDot[item]]++;
+            }
+        }
+
+        final var groupItems = new int[terms.size()][];
+        final var groupLookaheads = new BitSet[terms.size()][];
+        for (int symbol = 0; symbol < terms.size(); symbol++) {
+            if (groupSize[symbol] > 0) {
+                groupItems[symbol] = new int[groupSize[symbol]];
+                groupLookaheads[symbol] = new BitSet[groupSize[symbol]];
+                groupSize[symbol] = 0;
+            }
+        }
+        for (int i = 0; i < items.length; i++) {
+            final var symbol = itemAfterDot[items[i]];
+            if (symbol >= 0) {
+                groupItems[symbol][groupSize[symbol]] = items[i] + 1;
+                groupLookaheads[symbol][groupSize[symbol]++] = closure.lookaheads()[i];
+            }
+        }
+
+        final var kernelForGoto = new ItemLookaheads[terms.size()];
+        for (int symbol = 0; symbol < terms.size(); symbol++) {
+            if (groupItems[symbol] != null) {
+                kernelForGoto[symbol] = new ItemLookaheads(groupItems[symbol], groupLookaheads[symbol]);
+            }
+        }
+
+        return Arrays.asList(kernelForGoto);
+    }
+
+    /**
+     * 在 LR(0) 项目集族上计算 LALR(1) 的向前看符号
+     * <br>
+     * 对每个状态 I 的每个核项目 K, 以带传播标记的 [K, #] 求闭包. 对闭包中每个 [B -> gamma . X delta, a]:
+     * 若 a 是终结符, 则 a 是 GO(I, X) 中核项目 B -> gamma X . delta 自发生成的向前看符号;
+     * 若 a 是传播标记, 则 K 的向前看符号会传播到 GO(I, X) 中的这个核项目.
+     * 随后从 [S -> . S', $] 开始沿传播关系迭代到不动点, 再对每个状态以核的向前看符号求一次闭包, 得到规约所需的向前看符号.
+     */
+    private void calcLALRLookaheads() {
+        // 所有状态的核项目连续编号
+        final var kernelItems = new int[kernels.size()][];
+        final var kernelOffset = new int[kernels.size() + 1];
+        for (int idx = 0; idx < kernels.size(); idx++) {
+            kernelItems[idx] = kernels.get(idx).stream().toArray();
+            kernelOffset[idx + 1] = kernelOffset[idx] + kernelItems[idx].length;
+        }
+
+        final var kernelLookaheads = new BitSet[kernelOffset[kernels.size()]];
+        final var propagateTo = new ArrayList<List<Integer>>();
+        for (int k = 0; k < kernelLookaheads.length; k++) {
+            kernelLookaheads[k] = new BitSet();
+            propagateTo.add(new ArrayList<>());
+        }
+
+        // 各核项目的闭包互不依赖, 先 (并行地) 求出每个状态产生的向前看符号与传播关系, 再依次合并
+        final var markerOnly = new BitSet();
+        markerOnly.set(marker);
+        final var generated = mapStatus(0, kernels.size(), idx -> {
+            final var result = new ArrayList<Generated>();
+            for (int k = 0; k < kernelItems[idx].length; k++) {
+                final var closure = constructClosure(
+                    new ItemLookaheads(new int[]{kernelItems[idx][k]}, new BitSet[]{markerOnly}));
+
+                for (int i = 0; i < closure.items().length; i++) {
+                    final var item = closure.items()[i];
+                    if (itemAfterDot[item] < 0) {
+                        continue;
+                    }
+
+                    final var target = transitions.get(idx)[itemAfterDot[item]];
+                    final var to = kernelOffset[target] + Arrays.binarySearch(kernelItems[target], item + 1);
+                    result.add(new Generated(kernelOffset[idx] + k, to, closure.lookaheads()[i]));
+                }
+            }
+            return result;
+        });
+
+        for (final var statusGenerated : generated) {
+            for (final var each : statusGenerated) {
+                kernelLookaheads[each.to()].or(each.lookahead());
+                if (each.lookahead().get(marker)) {
+                    kernelLookaheads[each.to()].clear(marker);
+                    propagateTo.get(each.from()).add(each.to());
+                }
+            }
+        }
+
+        kernelLookaheads[kernelOffset[0]].set(termIds.get(TokenKind.eof()) - nonTerminalCount);
+
+        // 向前看符号集合有变化的核项目需要再次向外传播
+        final var unpropagated = new ArrayDeque<Integer>();
+        for (int k = 0; k < kernelLookaheads.length; k++) {
+            if (!kernelLookaheads[k].isEmpty()) {
+                unpropagated.add(k);
+            }
+        }
+
+        while (!unpropagated.isEmpty()) {
+            final var from = unpropagated.pollFirst();
+            for (final var to : propagateTo.get(from)) {
+                if (addAll(kernelLookaheads[to], kernelLookaheads[from])) {
+                    unpropagated.addLast(to);
+                }
+            }
+        }
+
+        lookaheads.addAll(mapStatus(0, kernels.size(), idx -> constructClosure(new ItemLookaheads(kernelItems[idx],
+            Arrays.copyOfRange(kernelLookaheads, kernelOffset[idx], kernelOffset[idx + 1])))));
+    }
+
+    /**
+     * 核项目 from 的闭包使核项目 to 得到的向前看符号, 带有传播标记时表示 from 的向前看符号也会传播到 to
+     */
+    private record Generated(int from, int to, BitSet lookahead) {
+    }
+
+    /**
+     * @param target 目标集合
+     * @param source 要并入的集合
+     * @return 目标集合是否因此变化
+     */
+    private static boolean addAll(BitSet target, BitSet source) {
+        final var missing = (BitSet) source.clone();
+        missing.andNot(target);
+        target.or(missing);
+        return !missing.isEmpty();
     }
 
     /**
      * 构造 LR 分析表 (填充各个 status 中的 action 与 goto)
      */
     private void genTable() {
-        // 依索引顺序对每个状态的每个项目
+        // 依索引顺序对每个状态
         for (final var status : allStatusInIndexOrder) {
-            for (final var item : including.get(status)) {
-                final var afterDotOpt = item.getAfterDot();
-
-                // 根据项目的点的位置和点后面跟着的文法符号进行分类
-                if (afterDotOpt.isEmpty()) {
-                    final var argumentProduction = productions.get(0);
-                    if (item.production().equals(argumentProduction)) {
-                        // S -> S' .
-                        // 如果项目代表起始文法的末尾, 那么再遇到 EOF 就 accept 了
-                        status.setAction(TokenKind.eof(), Action.accept());
-                    } else {
-                        // A -> alpha .
-                        // 如果项目代表某个产生式的末尾, 那么再遇到对于任何位于 follow(A) 内的文法符号都应该规约 A
-                        final var production = item.production();
-                        final var head = production.head();
-                        for (final var a : follow.get(head)) {
-                            status.setAction(a, Action.reduce(production));
-                        }
-                    }
+            final var idx = status.index();
+
+            // 项目 A -> alpha . a beta 使状态在遇到终结符 a 时移入, 项目 A -> alpha . B beta 使状态在规约到 B 后转移
+            final var to = transitions.get(idx);
+            for (int symbol = 0; symbol < terms.size(); symbol++) {
+                if (to[symbol] < 0) {
+                    continue;
+                }
 
+                final var next = allStatusInIndexOrder.get(to[symbol]);
+                if (terms.get(symbol) instanceof TokenKind tokenKind) {
+                    status.setAction(tokenKind, Action.shift(next));
+                } else if (terms.get(symbol) instanceof NonTerminal nonTerminal) {
+                    status.setGoto(nonTerminal, next);
                 } else {
-                    final var symbol = afterDotOpt.get();
-                    final var next = belongTo.get(constructGoto(including.get(status), symbol));
-
-                    if (symbol instanceof TokenKind tokenKind) {
-                        // A -> alpha . a beta
-                        // 如果项目代表某个产生式的中间, 并且接着一个终结符的情况, 我们就移入该终结符
-                        status.setAction(tokenKind, Action.shift(next));
-                    } else if (symbol instanceof NonTerminal nonTerminal) {
-                        // A -> alpha . B beta
-                        // 如果项目代表某个产生式的中间, 并且接着一个非终结符的情况,
-                        // 我们就转移到 B 解析之后的状态中去 (即 GO(I, B) 对应的状态)
-                        status.setGoto(nonTerminal, next);
-                    } else {
-                        throw new RuntimeException("Unknown type of Term");
-                    }
+                    throw new RuntimeException("Unknown type of Term");
                 }
             }
+
+            closures.get(idx).stream().filter(item -> itemAfterDot[item] < 0).forEach(item -> {
+                final var production = productions.get(itemProduction[item]);
+                if (itemProduction[item] == 0) {
+                    // S -> S' .
+                    // 如果项目代表起始文法的末尾, 那么再遇到 EOF 就 accept 了
+                    status.setAction(TokenKind.eof(), Action.accept());
+                } else {
+                    // A -> alpha .
+                    // SLR 对任何位于 follow(A) 内的终结符都规约 A, LR(1) 与 LALR(1) 则只对该项目自身的向前看符号规约
+                    final var reduceOn = mode == Mode.SLR
+                        ? follow[termIds.get(production.head())]
+                        : lookaheads.get(idx).of(item);
+                    reduceOn.stream().forEach(t ->
+                        status.setAction((TokenKind) terms.get(nonTerminalCount + t), Action.reduce(production)));
+                }
+            });
         }
     }
 
@@ -79,6 +79,18 @@ public class TableLoader {
         return new LRTable(statusInIndexOrder, terminals, nonTerminals);
     }
 
+    /**
+     * 读取分析表并编译为稠密形式, 优先使用二进制缓存
+     *
+     * @param path      CSV 格式的分析表路径
+     * @param cachePath 二进制缓存的路径, 缓存失效时会被重新写出
+     * @return 编译好的分析表
+     * @see LRTableCache
+     */
+    public CompiledLRTable loadCompiled(String path, String cachePath) {
+        return LRTableCache.load(path, cachePath);
+    }
+
     private final List<Status> statusInIndexOrder = new ArrayList<>();
     private final Map<Integer, Status> statuses = new HashMap<>();
 
@@ -0,0 +1,259 @@
+package cn.edu.hitsz.compiler.symtab;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 可供多个线程同时使用的符号表
+ * <br>
+ * 在同一个 JVM 中并行编译多个源文件时, 各个词法分析器可以共享同一张符号表. 表被分为若干个分片, 每个分片是一个独立的开放寻址哈希表,
+ * 由自己的锁保护; 符号按哈希的高位分配到分片, 因此不同线程访问不同符号时很少竞争同一把锁.
+ * <br>
+ * 条目编号仍然是从 0 开始连续分配的, 但多个线程同时新增条目时, 编号的先后取决于线程的调度.
+ * 编号到条目的映射存放在按块分配的数组中, 块一经分配便不再移动, {@link #get(int)} 不需要加锁.
+ * <br>
+ * {@link #snapshot()} 按顺序获取全部分片的锁, 记下此刻已完成新增的条目数后即释放, 再在锁外复制这些条目及其当前类型,
+ * 得到某一时刻的一致视图, 工作线程此后新增的条目不会反映到快照中.
+ * {@link #dumpTable(String)} 输出的就是这样一个快照.
+ */
+public class ConcurrentSymbolTable extends SymbolTable {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final Shard[] shards;
+    private final int shardShift;
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * 编号到条目的映射的各个块, 只在持有本对象的监视器时替换为更长的副本
+     */
+    private volatile AtomicReferenceArray<AtomicReferenceArray<SymbolTableEntry>> chunks =
+        new AtomicReferenceArray<>(1);
+
+    /**
+     * 以处理器数的四倍 (向上取到 2 的幂) 作为分片数
+     */
+    public ConcurrentSymbolTable() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param shardCount 期望的分片数, 将被向上取到 2 的幂, 且至少为 2
+     */
+    public ConcurrentSymbolTable(int shardCount) {
+        if (shardCount <= 0) {
+            throw new RuntimeException("Illegal shard count: " + shardCount);
+        }
+
+        // 分片取哈希的高 bits 位, 移位量为 32 - bits; 只有一个分片时移位量为 32, 而 Java 的移位量按 32 取模, 所以至少两个分片
+        final var bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(shardCount - 1));
+        this.shards = new Shard[1 << bits];
+        this.shardShift = 32 - bits;
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    @Override
+    public SymbolTableEntry get(String text) {
+        final var entry = shardOf(text).find(text);
+        if (entry == null) {
+            throw new RuntimeException("Symbol %s not found in table".formatted(text));
+        }
+
+        return entry;
+    }
+
+    @Override
+    public SymbolTableEntry add(String text) {
+        final var entry = shardOf(text).findOrAdd(text, true);
+        if (entry == null) {
+            throw new RuntimeException("Symbol %s already exists in table".formatted(text));
+        }
+
+        return entry;
+    }
+
+    @Override
+    public boolean has(String text) {
+        return shardOf(text).find(text) != null;
+    }
+
+    @Override
+    public SymbolTableEntry getOrAdd(String text) {
+        return shardOf(text).findOrAdd(text, false);
+    }
+
+    /**
+     * @param id 条目编号
+     * @return 该编号的条目
+     * @throws RuntimeException 该编号尚未分配, 或分配它的线程还未完成新增
+     */
+    @Override
+    public SymbolTableEntry get(int id) {
+        final var chunk = id < 0 ? null : chunkAt(id >>> CHUNK_BITS);
+        final var entry = chunk == null ? null : chunk.get(id & (CHUNK_SIZE - 1));
+        if (entry == null) {
+            throw new RuntimeException("Symbol id %d out of range [0, %d)".formatted(id, size()));
+        }
+
+        return entry;
+    }
+
+    /**
+     * @return 已分配的条目编号数, 其中可能有正在被其它线程新增, 尚未能取得的条目
+     */
+    @Override
+    public int size() {
+        return nextId.get();
+    }
+
+    /**
+     * 获得一致的快照: 快照中恰好包含获取快照时已经完成新增的条目, 编号与之相同, 类型为复制时的值
+     *
+     * @return 与本表互不影响的单线程符号表
+     */
+    public SymbolTable snapshot() {
+        final int count;
+        for (final var shard : shards) {
+            shard.lock.lock();
+        }
+        try {
+            // 持有全部分片的锁时没有进行中的新增, 已分配的编号都已登记
+            count = nextId.get();
+        } finally {
+            for (final var shard : shards) {
+                shard.lock.unlock();
+            }
+        }
+
+        // 编号小于 count 的条目不会再变化 (类型除外), 复制不需要持有锁
+        final var snapshot = new SymbolTable();
+        for (int id = 0; id < count; id++) {
+            final var entry = get(id);
+            final var copy = snapshot.add(entry.getText());
+            if (entry.getType() != null) {
+                copy.setType(entry.getType());
+            }
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void dumpTable(String path) {
+        snapshot().dumpTable(path);
+    }
+
+    private Shard shardOf(String text) {
+        return shards[mix(text.hashCode()) >>> shardShift];
+    }
+
+    /**
+     * 与 {@link SymbolTable} 相同的打散函数; 分片取哈希的高位, 分片内的槽取低位, 二者互不相关
+     */
+    private static int mix(int hash) {
+        final var h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private SymbolTableEntry register(String text) {
+        final var id = nextId.getAndIncrement();
+        if (id < 0) {
+            throw new RuntimeException("Too many symbols");
+        }
+
+        final var entry = new SymbolTableEntry(text, id);
+        var chunk = chunkAt(id >>> CHUNK_BITS);
+        if (chunk == null) {
+            chunk = allocateChunk(id >>> CHUNK_BITS);
+        }
+        chunk.set(id & (CHUNK_SIZE - 1), entry);
+        return entry;
+    }
+
+    private AtomicReferenceArray<SymbolTableEntry> chunkAt(int index) {
+        final var directory = chunks;
+        return index < directory.length() ? directory.get(index) : null;
+    }
+
+    private synchronized AtomicReferenceArray<SymbolTableEntry> allocateChunk(int index) {
+        var directory = chunks;
+        if (index >= directory.length()) {
+            final var grown = new AtomicReferenceArray<AtomicReferenceArray<SymbolTableEntry>>(
+                Math.max(index + 1, directory.length() * 2));
+            for (int i = 0; i < directory.length(); i++) {
+                grown.set(i, directory.get(i));
+            }
+            chunks = directory = grown;
+        }
+
+        if (directory.get(index) == null) {
+            directory.set(index, new AtomicReferenceArray<>(CHUNK_SIZE));
+        }
+        return directory.get(index);
+    }
+
+    /**
+     * 一个分片: 以条目本身为槽的开放寻址哈希表, null 表示空槽
+     */
+    private final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private SymbolTableEntry[] slots = new SymbolTableEntry[16];
+        private int size = 0;
+
+        SymbolTableEntry find(String text) {
+            lock.lock();
+            try {
+                return slots[probe(slots, text)];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @param text      符号的文本表示
+         * @param mustBeNew 为 true 时若符号已存在则返回 null
+         * @return 该符号的条目
+         */
+        SymbolTableEntry findOrAdd(String text, boolean mustBeNew) {
+            lock.lock();
+            try {
+                final var slot = probe(slots, text);
+                if (slots[slot] != null) {
+                    return mustBeNew ? null : slots[slot];
+                }
+
+                final var entry = register(text);
+                slots[slot] = entry;
+                // 装载因子保持在 1/2 以下
+                if (++size * 2 > slots.length) {
+                    rehash();
+                }
+                return entry;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void rehash() {
+            final var grown = new SymbolTableEntry[slots.length * 2];
+            for (final var entry : slots) {
+                if (entry != null) {
+                    grown[probe(grown, entry.getText())] = entry;
+                }
+            }
+            slots = grown;
+        }
+
+        private static int probe(SymbolTableEntry[] slots, String text) {
+            final var mask = slots.length - 1;
+            for (var slot = mix(text.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+                final var entry = slots[slot];
+                if (entry == null || entry.getText() == text || entry.getText().equals(text)) {
+                    return slot;
+                }
+            }
+        }
+    }
+}
@@ -1,11 +1,10 @@
 package cn.edu.hitsz.compiler.symtab;
 
-import cn.edu.hitsz.compiler.NotImplementedException;
-import cn.edu.hitsz.compiler.utils.FileUtils;
-
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 /**
  * 符号表
@@ -13,8 +12,19 @@ import java.util.Map;
  * 由于源语言比较简易, 加之 Java 中具有非常好用的通用数据结构类型, 本项目其实并不一定需要一个集中的 "符号表" 来存储源语言中的
  * <b>所有符号的所有信息</b>. 但为了切合理论课程教学, 提高实验实践技能的通用性, 我们按照一般编译器项目中符号表的设计设计了该符号表.
  * 其在代码中的作用可能并不明显, 但我们希望同学们可以借此体验符号表的设计思想.
+ * <br>
+ * 每个条目按加入的顺序被分配一个从 0 开始的连续编号 ({@link SymbolTableEntry#getId()}), 之后的各个阶段可以直接用它作为数组下标,
+ * 而不必再以文本为键建立自己的哈希表.
+ * <br>
+ * 哈希表采用开放寻址 (线性探测), 槽中存放条目编号, -1 表示空槽. 词法分析器传入的文本是驻留过的, 同一个标识符总是同一个 String 对象,
+ * 因此比较时先比较引用, 通常不需要逐字符比较.
  */
 public class SymbolTable {
+    private int[] slots = newSlots(64);
+    private int[] hashes = new int[32];
+    private String[] texts = new String[32];
+    private SymbolTableEntry[] entries = new SymbolTableEntry[32];
+    private int size = 0;
 
     /**
      * 获取符号表中已有的条目
@@ -24,7 +34,12 @@ public class SymbolTable {
      * @throws RuntimeException 该符号在表中不存在
      */
     public SymbolTableEntry get(String text) {
-        throw new NotImplementedException();
+        final var slot = find(text);
+        if (slots[slot] < 0) {
+            throw new RuntimeException("Symbol %s not found in table".formatted(text));
+        }
+
+        return entries[slots[slot]];
     }
 
     /**
@@ -35,7 +50,12 @@ public class SymbolTable {
      * @throws RuntimeException 该符号已在表中存在
      */
     public SymbolTableEntry add(String text) {
-        throw new NotImplementedException();
+        final var slot = find(text);
+        if (slots[slot] >= 0) {
+            throw new RuntimeException("Symbol %s already exists in table".formatted(text));
+        }
+
+        return add(slot, text);
     }
 
     /**
@@ -45,34 +65,170 @@ public class SymbolTable {
      * @return 该符号的条目是否位于符号表中
      */
     public boolean has(String text) {
-        throw new NotImplementedException();
+        return slots[find(text)] >= 0;
     }
 
     /**
-     * 获得符号表的所有条目以供 {@code dumpTable} 使用
+     * 获取符号的条目, 不存在时新增, 只需查找一次
      *
-     * @return 符号表的所有条目
+     * @param text 符号的文本表示
+     * @return 该符号在符号表中的条目
      */
-    private Map<String, SymbolTableEntry> getAllEntries() {
-        throw new NotImplementedException();
+    public SymbolTableEntry getOrAdd(String text) {
+        final var slot = find(text);
+        final var id = slots[slot];
+        return id >= 0 ? entries[id] : add(slot, text);
+    }
+
+    /**
+     * @param id 条目编号
+     * @return 该编号的条目
+     */
+    public SymbolTableEntry get(int id) {
+        if (id < 0 || id >= size) {
+            throw new RuntimeException("Symbol id %d out of range [0, %d)".formatted(id, size));
+        }
+
+        return entries[id];
+    }
+
+    /**
+     * @return 条目数, 也是条目编号的上界 (不含)
+     */
+    public int size() {
+        return size;
     }
 
     /**
      * 将符号表按格式输出
+     * <br>
+     * 条目按文本排序输出. 排序的对象是条目编号的 int 数组, 比较时直接读取稠密的文本数组, 不复制条目数组,
+     * 也不会为每个条目构造中间的字符串列表.
      *
      * @param path 输出文件路径
      */
     public void dumpTable(String path) {
-        final var entriesInOrder = new ArrayList<>(getAllEntries().values());
-        entriesInOrder.sort(Comparator.comparing(SymbolTableEntry::getText));
+        final var order = new int[size];
+        for (int id = 0; id < size; id++) {
+            order[id] = id;
+        }
+        sortByText(order, new int[size], 0, size);
+
+        try (final var writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            for (final var id : order) {
+                final var entry = entries[id];
+                // null in %s will be "null"
+                writer.write("(%s, %s)".formatted(entry.getText(), entry.getType()));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        }
+    }
+
+    /**
+     * 按文本对条目编号的区间 [from, to) 归并排序, 表中的文本互不相同, 因此不必考虑稳定性
+     *
+     * @param ids     条目编号
+     * @param scratch 与 ids 等长的辅助数组
+     */
+    private void sortByText(int[] ids, int[] scratch, int from, int to) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                final var id = ids[i];
+                var j = i;
+                while (j > from && texts[ids[j - 1]].compareTo(texts[id]) > 0) {
+                    ids[j] = ids[j - 1];
+                    j--;
+                }
+                ids[j] = id;
+            }
+            return;
+        }
 
-        final var lines = new ArrayList<String>();
-        for (final var entry : entriesInOrder) {
-            // null in %s will be "null"
-            lines.add("(%s, %s)".formatted(entry.getText(), entry.getType()));
+        final var mid = (from + to) >>> 1;
+        sortByText(ids, scratch, from, mid);
+        sortByText(ids, scratch, mid, to);
+        if (texts[ids[mid - 1]].compareTo(texts[ids[mid]]) < 0) {
+            return;
         }
 
-        FileUtils.writeLines(path, lines);
+        System.arraycopy(ids, from, scratch, from, to - from);
+        for (int i = from, left = from, right = mid; i < to; i++) {
+            if (right == to || (left < mid && texts[scratch[left]].compareTo(texts[scratch[right]]) < 0)) {
+                ids[i] = scratch[left++];
+            } else {
+                ids[i] = scratch[right++];
+            }
+        }
     }
-}
 
+    /**
+     * @param text 符号的文本表示
+     * @return 该符号所在的槽, 或者它应被放入的空槽
+     */
+    private int find(String text) {
+        final var hash = text.hashCode();
+        final var mask = slots.length - 1;
+        for (var slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            final var id = slots[slot];
+            if (id < 0) {
+                return slot;
+            }
+
+            final var candidate = texts[id];
+            if (candidate == text || (hashes[id] == hash && candidate.equals(text))) {
+                return slot;
+            }
+        }
+    }
+
+    private SymbolTableEntry add(int slot, String text) {
+        if (size == entries.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            texts = Arrays.copyOf(texts, size * 2);
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+
+        final var id = size++;
+        final var entry = new SymbolTableEntry(text, id);
+        hashes[id] = text.hashCode();
+        texts[id] = text;
+        entries[id] = entry;
+        slots[slot] = id;
+
+        // 装载因子保持在 1/2 以下
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+
+        return entry;
+    }
+
+    private void rehash() {
+        slots = newSlots(slots.length * 2);
+        final var mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            var slot = mix(hashes[id]) & mask;
+            while (slots[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            slots[slot] = id;
+        }
+    }
+
+    /**
+     * 打散 String 的哈希, 避免相近的标识符 (如 v1, v2, ...) 聚集在相邻的槽中
+     */
+    private static int mix(int hash) {
+        final var h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int[] newSlots(int capacity) {
+        final var slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        return slots;
+    }
+}
@@ -1,5 +1,8 @@
 package cn.edu.hitsz.compiler.symtab;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * 符号表条目
  */
@@ -8,7 +11,16 @@ public class SymbolTableEntry {
      * @param text 符号的文本表示. 对于标识符符号, 该参数应该为标识符文本.
      */
     public SymbolTableEntry(String text) {
+        this(text, -1);
+    }
+
+    /**
+     * @param text 符号的文本表示
+     * @param id   在符号表中的编号
+     */
+    SymbolTableEntry(String text, int id) {
         this.text = text;
+        this.id = id;
         this.type = null;
     }
 
@@ -19,6 +31,13 @@ public class SymbolTableEntry {
         return text;
     }
 
+    /**
+     * @return 在符号表中的编号, 从 0 开始连续分配; 不属于任何符号表的条目为 -1
+     */
+    public int getId() {
+        return id;
+    }
+
     /**
      * @return 该标识符符号可以绑定到的源语言对象的类型
      */
@@ -29,17 +48,28 @@ public class SymbolTableEntry {
     /**
      * 由于这个类型严格来说只能在语法分析后才能获得, 所以为了在词法分析时就构造出符号表,
      * 我们只能暴露出该接口用以修改该成员. 该成员应该且只应该被修改一次.
+     * <br>
+     * 修改以 CAS 完成, 多个线程同时设置同一条目的类型时恰好有一个成功, 其余的抛出异常.
      *
      * @param type 该标识符符号可以绑定到的源语言对象的类型
      */
     public void setType(SourceCodeType type) {
-        if (this.type != null) {
+        if (!TYPE.compareAndSet(this, null, type)) {
             throw new RuntimeException("Can NOT set type for an entry twice");
         }
+    }
+
+    private static final VarHandle TYPE;
 
-        this.type = type;
+    static {
+        try {
+            TYPE = MethodHandles.lookup().findVarHandle(SymbolTableEntry.class, "type", SourceCodeType.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
     }
 
     private final String text;
-    private SourceCodeType type;
+    private final int id;
+    private volatile SourceCodeType type;
 }
@@ -0,0 +1,169 @@
+package cn.edu.hitsz.compiler.utils;
+
+import cn.edu.hitsz.compiler.ir.IRBuffer;
+import cn.edu.hitsz.compiler.ir.Instruction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntFunction;
+
+/**
+ * 并行地模拟执行一批 IR 程序
+ * <br>
+ * 每个程序都在自己的缓冲区与寄存器堆上由 {@link RegisterEmulator} 执行, 程序之间不共享任何可变状态.
+ * 程序被分为若干组提交到给定的线程池, 线程池的并行度即同时执行的程序数的上限; 结果按输入的顺序排列.
+ * 某个程序执行失败时只记录该程序的异常, 不影响其它程序.
+ */
+public final class BatchEmulator {
+    /**
+     * 每个线程平均分到的任务数, 多于一个以平衡各任务的工作量
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    /**
+     * 每个任务至少执行的程序数, 过小的任务不值得调度
+     */
+    private static final int MIN_PROGRAMS_PER_TASK = 8;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool 执行程序的线程池
+     */
+    public BatchEmulator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param programs 各个程序的指令列表
+     * @return 按输入顺序排列的执行结果
+     */
+    public Result execute(List<? extends List<Instruction>> programs) {
+        return execute(programs.size(), idx -> IRBuffer.of(programs.get(idx)));
+    }
+
+    /**
+     * 读取并执行 IR 文件, 读取与解析也在线程池中进行
+     *
+     * @param paths 各个 IR 文件的路径, 格式见 {@link IRBuffer#parse(List)}
+     * @return 按输入顺序排列的执行结果
+     */
+    public Result executeFiles(List<String> paths) {
+        return execute(paths.size(), idx -> IRBuffer.parse(FileUtils.readLines(paths.get(idx))));
+    }
+
+    /**
+     * @param count  程序数
+     * @param loader 由程序下标得到程序的函数, 在线程池中调用
+     */
+    private Result execute(int count, IntFunction<IRBuffer> loader) {
+        final var start = System.nanoTime();
+        final var values = new ArrayList<Optional<Integer>>(Collections.nCopies(count, Optional.empty()));
+        final var errors = new RuntimeException[count];
+
+        final var taskSize = Math.max(MIN_PROGRAMS_PER_TASK,
+            (count + pool.getParallelism() * TASKS_PER_THREAD - 1) / (pool.getParallelism() * TASKS_PER_THREAD));
+        final var tasks = new ArrayList<ForkJoinTask<Long>>();
+        for (int taskBegin = 0; taskBegin < count; taskBegin += taskSize) {
+            final var from = taskBegin;
+            final var to = Math.min(taskBegin + taskSize, count);
+            tasks.add(pool.submit(() -> {
+                var instructions = 0L;
+                for (int idx = from; idx < to; idx++) {
+                    try {
+                        final var buffer = loader.apply(idx);
+                        instructions += buffer.size();
+                        values.set(idx, RegisterEmulator.load(buffer).execute());
+                    } catch (RuntimeException e) {
+                        errors[idx] = e;
+                    }
+                }
+                return instructions;
+            }));
+        }
+
+        // join 之后各任务写入的结果对当前线程可见
+        var instructions = 0L;
+        for (final var task : tasks) {
+            instructions += task.join();
+        }
+        return new Result(values, errors, instructions, System.nanoTime() - start);
+    }
+
+    /**
+     * 一批程序的执行结果与吞吐量
+     */
+    public static final class Result {
+        private final List<Optional<Integer>> values;
+        private final RuntimeException[] errors;
+        private final long instructionCount;
+        private final long elapsedNanos;
+
+        private Result(List<Optional<Integer>> values, RuntimeException[] errors, long instructionCount, long elapsedNanos) {
+            this.values = Collections.unmodifiableList(values);
+            this.errors = errors;
+            this.instructionCount = instructionCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return 按输入顺序排列的各程序的返回值, 执行失败的程序为空
+         */
+        public List<Optional<Integer>> values() {
+            return values;
+        }
+
+        /**
+         * @param idx 程序下标
+         * @return 该程序执行时抛出的异常, 执行成功时为空
+         */
+        public Optional<RuntimeException> error(int idx) {
+            return Optional.ofNullable(errors[idx]);
+        }
+
+        /**
+         * @return 执行失败的程序数
+         */
+        public int failureCount() {
+            return (int) Arrays.stream(errors).filter(Objects::nonNull).count();
+        }
+
+        public int programCount() {
+            return values.size();
+        }
+
+        /**
+         * @return 成功读取的程序的指令总数
+         */
+        public long instructionCount() {
+            return instructionCount;
+        }
+
+        /**
+         * @return 从提交到全部完成所用的时间, 包括读取与译码
+         */
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double programsPerSecond() {
+            return values.size() * 1e9 / Math.max(elapsedNanos, 1);
+        }
+
+        public double instructionsPerSecond() {
+            return instructionCount * 1e9 / Math.max(elapsedNanos, 1);
+        }
+
+        @Override
+        public String toString() {
+            return "%d programs (%d failed), %d instructions in %.3f ms: %.0f programs/s, %.0f instructions/s".formatted(
+                values.size(), failureCount(), instructionCount, elapsedNanos / 1e6, programsPerSecond(), instructionsPerSecond());
+        }
+    }
+}
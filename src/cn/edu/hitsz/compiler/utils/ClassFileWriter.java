@@ -0,0 +1,260 @@
+package cn.edu.hitsz.compiler.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 最小的 class 文件写出器, 只支持 {@link JitEmulator} 用到的部分: 没有字段, 方法都是静态的且不含分支,
+ * 因此不需要 StackMapTable. 常量池中的项在加入时去重.
+ */
+final class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    /**
+     * 常量池最多 65535 项
+     */
+    static final int MAX_CONSTANTS = 0xffff;
+
+    private static final int CLASS_VERSION = 61;
+
+    private final ByteArrayOutputStream constantBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(constantBytes);
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+    private int constantCount = 1;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int codeName;
+
+    /**
+     * @param internalName 类的内部名, 如 {@code a/b/C}
+     */
+    ClassFileWriter(String internalName) {
+        this.thisClass = classConstant(internalName);
+        this.superClass = classConstant("java/lang/Object");
+        this.codeName = utf8("Code");
+    }
+
+    /**
+     * @return 常量池当前的项数 (含第 0 项)
+     */
+    int constantCount() {
+        return constantCount;
+    }
+
+    int integer(int value) {
+        return constant(value, 3, out -> out.writeInt(value));
+    }
+
+    int methodref(String owner, String name, String descriptor) {
+        final var ownerIndex = classConstant(owner);
+        final var nameIndex = utf8(name);
+        final var descriptorIndex = utf8(descriptor);
+        final var nameAndType = constant("T" + name + ":" + descriptor, 12, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant("M" + owner + "." + name + ":" + descriptor, 10, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    /**
+     * 加入一个方法
+     *
+     * @param access     访问标志
+     * @param name       方法名
+     * @param descriptor 方法描述符
+     * @param maxStack   操作数栈的最大深度
+     * @param maxLocals  局部变量数
+     * @param code       字节码
+     */
+    void method(int access, String name, String descriptor, int maxStack, int maxLocals, Code code) {
+        final var nameIndex = utf8(name);
+        final var descriptorIndex = utf8(descriptor);
+        write(methods, out -> {
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            // 只有 Code 一个属性, 其中没有异常表, 也没有子属性
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0);
+            out.writeShort(0);
+        });
+        methodCount++;
+    }
+
+    byte[] toByteArray() {
+        if (constantCount > MAX_CONSTANTS) {
+            throw new RuntimeException("Too many constants: " + constantCount);
+        }
+
+        final var bytes = new ByteArrayOutputStream(constantBytes.size() + methodBytes.size() + 32);
+        write(new DataOutputStream(bytes), out -> {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            out.writeShort(constantCount);
+            constantBytes.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            // 没有接口与字段
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0);
+        });
+        return bytes.toByteArray();
+    }
+
+    private int utf8(String text) {
+        return constant("U" + text, 1, out -> out.writeUTF(text));
+    }
+
+    private int classConstant(String internalName) {
+        final var nameIndex = utf8(internalName);
+        return constant("C" + internalName, 7, out -> out.writeShort(nameIndex));
+    }
+
+    private int constant(Object key, int tag, Body body) {
+        final var index = constantIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        write(constants, out -> {
+            out.writeByte(tag);
+            body.write(out);
+        });
+        constantIndices.put(key, constantCount);
+        return constantCount++;
+    }
+
+    private static void write(DataOutputStream out, Body body) {
+        try {
+            body.write(out);
+        } catch (IOException e) {
+            // 只写入内存
+            throw new RuntimeException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * 一个方法的字节码, 只提供 {@link JitEmulator} 用到的指令
+     */
+    static final class Code {
+        private byte[] bytes = new byte[256];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        void op(int opcode) {
+            put(opcode);
+        }
+
+        void aload0() {
+            put(0x2a);
+        }
+
+        void iload(int local) {
+            localOp(0x15, 0x1a, local);
+        }
+
+        void istore(int local) {
+            localOp(0x36, 0x3b, local);
+        }
+
+        /**
+         * 将 int 常量压栈, 按值的范围选用 iconst, bipush, sipush 或 ldc
+         *
+         * @param value 常量
+         * @param cp    常量池, 值超出 short 的范围时才会用到
+         */
+        void pushInt(int value, ClassFileWriter cp) {
+            if (value >= -1 && value <= 5) {
+                put(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                put(0x10);
+                put(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                put(0x11);
+                putShort(value);
+            } else {
+                final var index = cp.integer(value);
+                if (index < 256) {
+                    put(0x12);
+                    put(index);
+                } else {
+                    put(0x13);
+                    putShort(index);
+                }
+            }
+        }
+
+        void invokestatic(int methodref) {
+            put(0xb8);
+            putShort(methodref);
+        }
+
+        private void localOp(int opcode, int shortOpcode, int local) {
+            if (local < 4) {
+                put(shortOpcode + local);
+            } else if (local < 256) {
+                put(opcode);
+                put(local);
+            } else {
+                // wide
+                put(0xc4);
+                put(opcode);
+                putShort(local);
+            }
+        }
+
+        private void putShort(int value) {
+            put(value >>> 8);
+            put(value);
+        }
+
+        private void put(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.write(bytes, 0, size);
+        }
+    }
+}
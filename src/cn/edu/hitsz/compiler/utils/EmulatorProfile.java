@@ -0,0 +1,220 @@
+package cn.edu.hitsz.compiler.utils;
+
+import cn.edu.hitsz.compiler.ir.IRBuffer;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IR 模拟执行的计数
+ * <br>
+ * 由 {@link RegisterEmulator#execute(EmulatorProfile)} 填写, 可以在同一程序的多次执行之间累计:
+ * <ul>
+ *     <li>执行的指令总数与各种指令的执行次数</li>
+ *     <li>各个变量作为操作数被读取与作为结果被写入的次数</li>
+ *     <li>各条指令的执行次数, 报告中只列出最多的 {@link #HOTTEST_COUNT} 条</li>
+ * </ul>
+ * IR 是没有跳转的直线代码, 一次执行中每条指令至多执行一次, 因此各条指令的次数只在执行中途失败时才有差别;
+ * 对优化更有参考价值的是各种指令的比例与变量的读写次数.
+ * <br>
+ * 结果可以导出为 CSV ({@link #toCsv()}) 或 JSON ({@link #toJson()}).
+ */
+public final class EmulatorProfile {
+    /**
+     * 报告中列出的指令数
+     */
+    public static final int HOTTEST_COUNT = 20;
+
+    private static final InstructionKind[] KINDS = InstructionKind.values();
+
+    private IRBuffer buffer = null;
+    private long runs = 0;
+    private long dynamicInstructions = 0;
+    private final long[] kindCounts = new long[KINDS.length];
+    private long[] instructionCounts = new long[0];
+    private long[] reads = new long[0];
+    private long[] writes = new long[0];
+
+    /**
+     * 开始一次执行
+     *
+     * @param program 被执行的程序, 同一个 profile 只能记录同一个程序
+     */
+    void attach(IRBuffer program) {
+        if (buffer == null) {
+            buffer = program;
+            instructionCounts = new long[program.size()];
+            reads = new long[program.variableCount()];
+            writes = new long[program.variableCount()];
+        } else if (buffer != program) {
+            throw new RuntimeException("A profile can only record a single program");
+        }
+    }
+
+    void executed(int index) {
+        instructionCounts[index]++;
+        kindCounts[buffer.opcode(index) & IRBuffer.KIND_MASK]++;
+        dynamicInstructions++;
+    }
+
+    void read(int variable) {
+        reads[variable]++;
+    }
+
+    void written(int variable) {
+        writes[variable]++;
+    }
+
+    void finished() {
+        runs++;
+    }
+
+    /**
+     * @return 完成的执行次数, 中途失败的不计
+     */
+    public long runs() {
+        return runs;
+    }
+
+    /**
+     * @return 执行的指令总数
+     */
+    public long dynamicInstructions() {
+        return dynamicInstructions;
+    }
+
+    /**
+     * @param kind 指令种类
+     * @return 该种指令的执行次数
+     */
+    public long count(InstructionKind kind) {
+        return kindCounts[kind.ordinal()];
+    }
+
+    /**
+     * @param variable 变量编号
+     * @return 该变量被读取的次数
+     */
+    public long reads(int variable) {
+        return variable < reads.length ? reads[variable] : 0;
+    }
+
+    /**
+     * @param variable 变量编号
+     * @return 该变量被写入的次数
+     */
+    public long writes(int variable) {
+        return variable < writes.length ? writes[variable] : 0;
+    }
+
+    /**
+     * @param limit 最多返回的指令数
+     * @return 执行次数最多的指令下标, 按次数降序, 次数相同时按下标升序
+     */
+    public int[] hottest(int limit) {
+        // 插入排序维护前 limit 条, 次数相同的后来者排不进去, 通常只需比较一次
+        final var top = new int[Math.min(limit, instructionCounts.length)];
+        var size = 0;
+        for (int index = 0; index < instructionCounts.length; index++) {
+            final var count = instructionCounts[index];
+            if (size == top.length && (size == 0 || count <= instructionCounts[top[size - 1]])) {
+                continue;
+            }
+
+            var slot = size < top.length ? size++ : size - 1;
+            while (slot > 0 && instructionCounts[top[slot - 1]] < count) {
+                top[slot] = top[slot - 1];
+                slot--;
+            }
+            top[slot] = index;
+        }
+        return top;
+    }
+
+    /**
+     * 以 CSV 格式导出, 每行为 {@code section,name,count,reads,writes}, 不适用的列留空
+     */
+    public List<String> toCsv() {
+        final var lines = new ArrayList<String>();
+        lines.add("section,name,count,reads,writes");
+        lines.add("summary,runs,%d,,".formatted(runs));
+        lines.add("summary,dynamic_instructions,%d,,".formatted(dynamicInstructions));
+        for (final var kind : KINDS) {
+            lines.add("opcode,%s,%d,,".formatted(kind, kindCounts[kind.ordinal()]));
+        }
+        for (int id = 0; id < reads.length; id++) {
+            lines.add("variable,%s,,%d,%d".formatted(csvField(buffer.variable(id).getName()), reads[id], writes[id]));
+        }
+        for (final var index : hottest(HOTTEST_COUNT)) {
+            lines.add("instruction,%d,%d,,".formatted(index, instructionCounts[index]));
+        }
+        return lines;
+    }
+
+    /**
+     * 以 JSON 格式导出
+     */
+    public String toJson() {
+        final var json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"runs\": ").append(runs).append(",\n");
+        json.append("  \"dynamicInstructions\": ").append(dynamicInstructions).append(",\n");
+
+        json.append("  \"opcodes\": {");
+        for (final var kind : KINDS) {
+            json.append(kind.ordinal() == 0 ? "" : ",").append("\n    \"").append(kind).append("\": ")
+                .append(kindCounts[kind.ordinal()]);
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"variables\": [");
+        for (int id = 0; id < reads.length; id++) {
+            json.append(id == 0 ? "" : ",").append("\n    {\"name\": ").append(jsonString(buffer.variable(id).getName()))
+                .append(", \"reads\": ").append(reads[id])
+                .append(", \"writes\": ").append(writes[id]).append('}');
+        }
+        json.append(reads.length == 0 ? "],\n" : "\n  ],\n");
+
+        json.append("  \"hottest\": [");
+        final var hottest = hottest(HOTTEST_COUNT);
+        for (int i = 0; i < hottest.length; i++) {
+            json.append(i == 0 ? "" : ",").append("\n    {\"index\": ").append(hottest[i])
+                .append(", \"count\": ").append(instructionCounts[hottest[i]])
+                .append(", \"instruction\": ").append(jsonString(buffer.toString(hottest[i]))).append('}');
+        }
+        json.append(hottest.length == 0 ? "]\n" : "\n  ]\n");
+        json.append("}");
+        return json.toString();
+    }
+
+    public void dumpCsv(String path) {
+        FileUtils.writeLines(path, toCsv());
+    }
+
+    public void dumpJson(String path) {
+        FileUtils.writeFile(path, toJson());
+    }
+
+    private static String csvField(String text) {
+        return text.contains(",") || text.contains("\"") ? "\"" + text.replace("\"", "\"\"") + "\"" : text;
+    }
+
+    private static String jsonString(String text) {
+        final var escaped = new StringBuilder(text.length() + 2).append('"');
+        for (final var ch : text.toCharArray()) {
+            switch (ch) {
+                case '"' -> escaped.append("\\\"");
+                case '\\' -> escaped.append("\\\\");
+                default -> {
+                    if (ch < 0x20) {
+                        escaped.append("\\u%04x".formatted((int) ch));
+                    } else {
+                        escaped.append(ch);
+                    }
+                }
+            }
+        }
+        return escaped.append('"').toString();
+    }
+}
@@ -27,6 +27,11 @@ public final class FilePathConfig {
 
 
     //==================================== 输出文件 ========================================//
+    /**
+     * 编译好的 LR 分析表的二进制缓存
+     */
+    public final static String LR1_TABLE_CACHE_PATH = "data/out/LR1_table.bin";
+
     /**
      * 词法单元流
      */
@@ -57,11 +62,22 @@ public final class FilePathConfig {
      */
     public static final String EMULATE_RESULT = "data/out/ir_emulate_result.txt";
 
+    /**
+     * IR 模拟执行的计数, 以 -Demulator.profile=true 开启
+     */
+    public static final String EMULATE_PROFILE_CSV = "data/out/ir_emulate_profile.csv";
+    public static final String EMULATE_PROFILE_JSON = "data/out/ir_emulate_profile.json";
+
     /**
      * 汇编代码
      */
     public static final String ASSEMBLY_LANGUAGE_PATH = "data/out/assembly_language.asm";
 
+    /**
+     * 语法分析驱动程序的跟踪记录
+     */
+    public static final String PARSE_TRACE_PATH = "data/out/parse_trace.txt";
+
     private FilePathConfig() {
     }
 }
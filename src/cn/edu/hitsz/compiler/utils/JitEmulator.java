@@ -0,0 +1,405 @@
+package cn.edu.hitsz.compiler.utils;
+
+import cn.edu.hitsz.compiler.ir.IRBuffer;
+import cn.edu.hitsz.compiler.ir.Instruction;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static cn.edu.hitsz.compiler.utils.RegisterEmulator.OP_ADD;
+import static cn.edu.hitsz.compiler.utils.RegisterEmulator.OP_MOV;
+import static cn.edu.hitsz.compiler.utils.RegisterEmulator.OP_MUL;
+import static cn.edu.hitsz.compiler.utils.RegisterEmulator.OP_RET;
+import static cn.edu.hitsz.compiler.utils.RegisterEmulator.OP_RET_NONE;
+import static cn.edu.hitsz.compiler.utils.RegisterEmulator.OP_SUB;
+import static cn.edu.hitsz.compiler.utils.RegisterEmulator.OP_UNDEFINED;
+import static cn.edu.hitsz.compiler.utils.RegisterEmulator.WIDTH;
+
+/**
+ * 将 IR 编译为 JVM 字节码来模拟执行的类, 结果与 {@link IREmulator} 相同
+ * <br>
+ * 解释执行时每条指令都要经过一次分派. 该类把 {@link RegisterEmulator} 译码后的指令翻译为静态方法:
+ * 每个 IR 变量对应一个局部变量, 每条算术指令对应一条 iadd/isub/imul, 立即数直接写在字节码中.
+ * 生成的类以 {@link MethodHandles.Lookup#defineHiddenClass} 加载, 之后由 HotSpot 照常编译为本地代码.
+ * <br>
+ * HotSpot 不编译超过 8000 字节的方法, 因此指令被切分为若干个不超过 {@link #METHOD_BYTES} 字节的方法,
+ * 方法之间通过一个 int 数组传递变量: 方法开头只载入在其中先读后写的变量, 结尾写回被赋值的变量. 每个隐藏类中的方法由该类的
+ * run 方法依次调用, 常量池或方法数将满时开始下一个类. RET 把返回值写入数组末尾的两个槽, 因此执行会像解释时一样继续到最后一条指令.
+ * <br>
+ * 以下情况不编译, 退回到 {@link RegisterEmulator} 解释执行, 原因见 {@link #report()}:
+ * <ul>
+ *     <li>指令数超过 {@link #MAX_INSTRUCTIONS}</li>
+ *     <li>程序读取了未赋值的变量, 需要由解释器在执行到该处时报告</li>
+ *     <li>生成的类未能加载</li>
+ * </ul>
+ */
+public final class JitEmulator {
+    /**
+     * 编译的指令数上限, 更大的程序生成的字节码本身就要占用数百 MB
+     */
+    public static final int MAX_INSTRUCTIONS = 1 << 24;
+
+    /**
+     * 每个方法的字节码长度上限, 低于 HotSpot 的 HugeMethodLimit (8000)
+     */
+    static final int METHOD_BYTES = 7000;
+
+    /**
+     * 每个类中的方法数上限, 使 run 方法也不超过 {@link #METHOD_BYTES}
+     */
+    static final int METHODS_PER_CLASS = 1024;
+
+    private static final String CLASS_NAME = "cn/edu/hitsz/compiler/utils/JitEmulator$Program";
+    private static final String DESCRIPTOR = "([I)V";
+
+    private final RegisterEmulator interpreter;
+    private final MethodHandle[] programs;
+    private final int methodCount;
+    private final String fallbackReason;
+    private final long compileNanos;
+    private long executeNanos = -1;
+
+    private JitEmulator(RegisterEmulator interpreter, MethodHandle[] programs, int methodCount,
+                        String fallbackReason, long compileNanos) {
+        this.interpreter = interpreter;
+        this.programs = programs;
+        this.methodCount = methodCount;
+        this.fallbackReason = fallbackReason;
+        this.compileNanos = compileNanos;
+    }
+
+    public static JitEmulator load(List<Instruction> instructions) {
+        return load(IRBuffer.of(instructions));
+    }
+
+    /**
+     * 译码并编译 IR, 不能编译时保留解释器
+     *
+     * @param buffer 紧凑存放的 IR
+     * @return 可多次执行的模拟器
+     */
+    public static JitEmulator load(IRBuffer buffer) {
+        final var interpreter = RegisterEmulator.load(buffer);
+        final var start = System.nanoTime();
+
+        final String reason;
+        if (interpreter.instructionCount() > MAX_INSTRUCTIONS) {
+            reason = "%d instructions exceed the limit of %d".formatted(interpreter.instructionCount(), MAX_INSTRUCTIONS);
+        } else if (readsUndefined(interpreter)) {
+            reason = "program reads an unassigned variable";
+        } else {
+            try {
+                final var compiler = new Compiler(interpreter);
+                final var programs = compiler.compile();
+                return new JitEmulator(interpreter, programs, compiler.methodCount, null, System.nanoTime() - start);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return new JitEmulator(interpreter, null, 0, "class definition failed: " + e, System.nanoTime() - start);
+            }
+        }
+
+        return new JitEmulator(interpreter, null, 0, reason, System.nanoTime() - start);
+    }
+
+    /**
+     * 执行全部指令
+     *
+     * @return 最后一条 RET 指令的返回值, 没有 RET 或返回了未赋值的变量时为空
+     */
+    public Optional<Integer> execute() {
+        final var start = System.nanoTime();
+        try {
+            if (programs == null) {
+                return interpreter.execute();
+            }
+
+            final var returnSlot = interpreter.registerCount();
+            final var registers = new int[returnSlot + 2];
+            for (final var program : programs) {
+                program.invokeExact(registers);
+            }
+            return registers[returnSlot + 1] != 0 ? Optional.of(registers[returnSlot]) : Optional.empty();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        } finally {
+            executeNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return 是否已编译为字节码, 否则由解释器执行
+     */
+    public boolean isCompiled() {
+        return programs != null;
+    }
+
+    /**
+     * @return 生成的方法数 (不含各个类的 run 方法)
+     */
+    public int methodCount() {
+        return methodCount;
+    }
+
+    /**
+     * @return 生成的类数
+     */
+    public int classCount() {
+        return programs == null ? 0 : programs.length;
+    }
+
+    /**
+     * @return 译码之后生成并加载字节码所用的时间
+     */
+    public long compileNanos() {
+        return compileNanos;
+    }
+
+    /**
+     * @return 最近一次 {@link #execute()} 所用的时间, 尚未执行时为 -1
+     */
+    public long executeNanos() {
+        return executeNanos;
+    }
+
+    /**
+     * @return 编译时间与执行时间的概要, 未编译时给出原因
+     */
+    public String report() {
+        final var executed = executeNanos < 0 ? "not executed" : "executed in %.3f ms".formatted(executeNanos / 1e6);
+        if (programs == null) {
+            return "IR JIT: interpreted (%s), %s".formatted(fallbackReason, executed);
+        }
+
+        return "IR JIT: %d instructions -> %d methods in %d classes, compiled in %.3f ms, %s".formatted(
+            interpreter.instructionCount(), methodCount, programs.length, compileNanos / 1e6, executed);
+    }
+
+    private static boolean readsUndefined(RegisterEmulator interpreter) {
+        final var code = interpreter.code();
+        for (int at = 0, end = interpreter.instructionCount() * WIDTH; at < end; at += WIDTH) {
+            if (code[at] == OP_UNDEFINED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一次编译的状态
+     */
+    private static final class Compiler {
+        private final int[] code;
+        private final int instructionCount;
+        private final int variableCount;
+        private final int[] constants;
+        private final int returnSlot;
+
+        private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        private final List<MethodHandle> programs = new ArrayList<>();
+        private ClassFileWriter classFile;
+        private int methodsInClass = 0;
+        private int methodCount = 0;
+
+        /**
+         * 以 IR 变量编号为下标的局部变量编号, -1 表示当前方法还未用到该变量
+         */
+        private final int[] localOf;
+        /**
+         * 当前方法用到的变量, 按分配局部变量的顺序
+         */
+        private int[] touched = new int[64];
+        /**
+         * 以 IR 变量编号为下标, 当前方法中是否被赋值
+         */
+        private final boolean[] written;
+        private final ClassFileWriter.Code method = new ClassFileWriter.Code();
+
+        Compiler(RegisterEmulator interpreter) {
+            this.code = interpreter.code();
+            this.instructionCount = interpreter.instructionCount();
+            this.variableCount = interpreter.variableCount();
+            this.constants = interpreter.initialRegisters();
+            this.returnSlot = interpreter.registerCount();
+            this.localOf = new int[variableCount];
+            this.written = new boolean[variableCount];
+            Arrays.fill(localOf, -1);
+        }
+
+        MethodHandle[] compile() throws ReflectiveOperationException {
+            var from = 0;
+            do {
+                if (classFile == null) {
+                    classFile = new ClassFileWriter(CLASS_NAME);
+                }
+                from = compileMethod(from);
+                // 下一个方法最多加入 METHOD_BYTES / 2 个 int 常量, 关闭类时每个方法还需要 3 项
+                if (methodsInClass == METHODS_PER_CLASS || classFile.constantCount()
+                    + METHOD_BYTES / 2 + 3 * (methodsInClass + 1) + 16 > ClassFileWriter.MAX_CONSTANTS) {
+                    defineClass();
+                }
+            } while (from < instructionCount);
+
+            if (classFile != null) {
+                defineClass();
+            }
+            return programs.toArray(MethodHandle[]::new);
+        }
+
+        /**
+         * 从第 from 条指令开始生成一个方法
+         *
+         * @return 下一个方法的第一条指令
+         */
+        private int compileMethod(int from) {
+            // 第一遍: 确定方法包含的指令, 为用到的变量分配局部变量 (局部变量 0 是变量数组)
+            var locals = 0;
+            var estimate = 1;
+            var to = from;
+            for (; to < instructionCount; to++) {
+                final var at = to * WIDTH;
+                // 每个操作数至多 4 字节 (wide iload 或 ldc_w), 每个新变量在开头与结尾至多各 9 字节
+                var cost = code[at] == OP_RET || code[at] == OP_RET_NONE ? 16 : 13;
+                cost += 18 * (isNewVariable(code[at + 2]) + isNewVariable(code[at + 3]) + isNewVariable(code[at + 1]));
+                if (to > from && estimate + cost > METHOD_BYTES) {
+                    break;
+                }
+                estimate += cost;
+
+                switch (code[at]) {
+                    case OP_MOV -> {
+                        locals = use(code[at + 2], locals, true);
+                        locals = use(code[at + 1], locals, false);
+                        written[code[at + 1]] = true;
+                    }
+                    case OP_ADD, OP_SUB, OP_MUL -> {
+                        locals = use(code[at + 2], locals, true);
+                        locals = use(code[at + 3], locals, true);
+                        locals = use(code[at + 1], locals, false);
+                        written[code[at + 1]] = true;
+                    }
+                    case OP_RET -> locals = use(code[at + 2], locals, true);
+                    default -> {
+                    }
+                }
+            }
+
+            // 开头: 载入先读后写的变量
+            method.reset();
+            for (int i = 0; i < locals; i++) {
+                final var variable = touched[i];
+                if (localOf[variable] < 0) {
+                    // 首次使用是读取, 见 use
+                    localOf[variable] = ~localOf[variable];
+                    method.aload0();
+                    method.pushInt(variable, classFile);
+                    method.op(0x2e); // iaload
+                    method.istore(localOf[variable]);
+                }
+            }
+
+            // 第二遍: 生成指令
+            for (int i = from; i < to; i++) {
+                final var at = i * WIDTH;
+                switch (code[at]) {
+                    case OP_MOV -> {
+                        push(code[at + 2]);
+                        method.istore(localOf[code[at + 1]]);
+                    }
+                    case OP_ADD, OP_SUB, OP_MUL -> {
+                        push(code[at + 2]);
+                        push(code[at + 3]);
+                        method.op(code[at] == OP_ADD ? 0x60 : code[at] == OP_SUB ? 0x64 : 0x68); // iadd, isub, imul
+                        method.istore(localOf[code[at + 1]]);
+                    }
+                    case OP_RET -> {
+                        method.aload0();
+                        method.pushInt(returnSlot, classFile);
+                        push(code[at + 2]);
+                        method.op(0x4f); // iastore
+                        storeReturnFlag(1);
+                    }
+                    case OP_RET_NONE -> storeReturnFlag(0);
+                    default -> throw new RuntimeException("Unknown opcode: " + code[at]);
+                }
+            }
+
+            // 结尾: 写回被赋值的变量, 并清空局部变量表
+            for (int i = 0; i < locals; i++) {
+                final var variable = touched[i];
+                if (written[variable]) {
+                    method.aload0();
+                    method.pushInt(variable, classFile);
+                    method.iload(localOf[variable]);
+                    method.op(0x4f); // iastore
+                    written[variable] = false;
+                }
+                localOf[variable] = -1;
+            }
+            method.op(0xb1); // return
+
+            classFile.method(ClassFileWriter.ACC_STATIC, "c" + methodsInClass, DESCRIPTOR, 3, locals + 1, method);
+            methodsInClass++;
+            methodCount++;
+            return to;
+        }
+
+        /**
+         * 为当前方法中首次用到的变量分配局部变量; 首次使用是读取时暂以取反的编号标记, 需要在开头载入
+         */
+        private int use(int slot, int locals, boolean read) {
+            if (slot >= variableCount || localOf[slot] != -1) {
+                return locals;
+            }
+
+            if (locals == touched.length) {
+                touched = Arrays.copyOf(touched, locals * 2);
+            }
+            touched[locals] = slot;
+            localOf[slot] = read ? ~(locals + 1) : locals + 1;
+            return locals + 1;
+        }
+
+        private int isNewVariable(int slot) {
+            return slot >= 0 && slot < variableCount && localOf[slot] == -1 ? 1 : 0;
+        }
+
+        private void push(int slot) {
+            if (slot < variableCount) {
+                method.iload(localOf[slot]);
+            } else {
+                method.pushInt(constants[slot], classFile);
+            }
+        }
+
+        private void storeReturnFlag(int value) {
+            method.aload0();
+            method.pushInt(returnSlot + 1, classFile);
+            method.pushInt(value, classFile);
+            method.op(0x4f); // iastore
+        }
+
+        /**
+         * 为当前类加入依次调用各个方法的 run 方法并加载
+         */
+        private void defineClass() throws ReflectiveOperationException {
+            method.reset();
+            for (int i = 0; i < methodsInClass; i++) {
+                method.aload0();
+                method.invokestatic(classFile.methodref(CLASS_NAME, "c" + i, DESCRIPTOR));
+            }
+            method.op(0xb1); // return
+            classFile.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "run", DESCRIPTOR, 1, 1, method);
+
+            final var hidden = lookup.defineHiddenClass(classFile.toByteArray(), true);
+            programs.add(hidden.findStatic(hidden.lookupClass(), "run", MethodType.methodType(void.class, int[].class)));
+            classFile = null;
+            methodsInClass = 0;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package cn.edu.hitsz.compiler.utils;
+
+import cn.edu.hitsz.compiler.ir.IRBuffer;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+
+import java.util.HashMap;
+import java.util.Optional;
+
+/**
+ * 以寄存器堆模拟执行 IR 的类, 结果与 {@link IREmulator} 相同
+ * <br>
+ * {@link IREmulator} 以 IR 变量为键把变量的值装箱存放在哈希表中, 每次读写都要对变量名求哈希.
+ * 该类在加载时把每个变量解析为 int 寄存器堆中的一个槽, 执行时只做数组读写:
+ * <ul>
+ *     <li>变量的槽就是它在 {@link IRBuffer} 中的编号</li>
+ *     <li>立即数被放入变量之后的常量槽, 相同的值共用一个槽, 因此每条指令的操作数都是槽号</li>
+ *     <li>指令被预先译码为每条 {@link #WIDTH} 个 int 的数组: 操作码, 结果槽, 操作数槽 A, 操作数槽 B</li>
+ * </ul>
+ * IR 是没有跳转的直线代码, 变量在某条指令处是否已被赋值可以在加载时确定, 因此执行时不需要检查.
+ * 读取未赋值的变量时: MOV 使结果变量也成为未赋值, RET 返回空值, 算术指令执行到该处时抛出异常.
+ * 译码后的指令与 IR 指令一一对应, 下标相同.
+ * <br>
+ * {@link #execute(EmulatorProfile)} 在执行的同时记录计数; 不记录时 {@link #execute()} 的循环中没有任何额外的操作.
+ * 执行时的整数运算与 {@link IREmulator} 一样按 Java int 的语义回绕.
+ */
+public final class RegisterEmulator {
+    /**
+     * 译码后每条指令所占的 int 数
+     */
+    static final int WIDTH = 4;
+
+    static final int OP_MOV = 0;
+    static final int OP_ADD = 1;
+    static final int OP_SUB = 2;
+    static final int OP_MUL = 3;
+    static final int OP_RET = 4;
+    /**
+     * 返回未赋值的变量, 即空的返回值
+     */
+    static final int OP_RET_NONE = 5;
+    /**
+     * 算术指令读取了未赋值的变量, 操作数槽 A 为该变量的编号
+     */
+    static final int OP_UNDEFINED = 6;
+
+    private final IRBuffer buffer;
+    private final int variableCount;
+    private final int[] code;
+    private final int instructionCount;
+    private final int[] initialRegisters;
+
+    private RegisterEmulator(IRBuffer buffer, int[] code, int instructionCount, int[] initialRegisters) {
+        this.buffer = buffer;
+        this.variableCount = buffer.variableCount();
+        this.code = code;
+        this.instructionCount = instructionCount;
+        this.initialRegisters = initialRegisters;
+    }
+
+    /**
+     * 译码 IR
+     *
+     * @param buffer 紧凑存放的 IR
+     * @return 可多次执行的模拟器
+     */
+    public static RegisterEmulator load(IRBuffer buffer) {
+        final var variableCount = buffer.variableCount();
+        final var defined = new boolean[variableCount];
+        final var constantSlots = new HashMap<Integer, Integer>();
+
+        final var code = new int[buffer.size() * WIDTH];
+        var count = 0;
+        for (int i = 0; i < buffer.size(); i++) {
+            final var kind = buffer.kind(i);
+            final int a;
+            final int b;
+            if (buffer.isImmediateA(i)) {
+                a = constantSlots.computeIfAbsent(buffer.operandA(i), value -> variableCount + constantSlots.size());
+            } else {
+                a = buffer.operandA(i);
+            }
+            if (kind.isBinary() && buffer.isImmediateB(i)) {
+                b = constantSlots.computeIfAbsent(buffer.operandB(i), value -> variableCount + constantSlots.size());
+            } else {
+                b = kind.isBinary() ? buffer.operandB(i) : 0;
+            }
+            final var aDefined = a >= variableCount || defined[a];
+            final var bDefined = !kind.isBinary() || b >= variableCount || defined[b];
+
+            final int op;
+            final var at = count * WIDTH;
+            switch (kind) {
+                case MOV -> {
+                    // 源变量未赋值时结果变量此后也未赋值, 复制的无意义的值不会再被读取
+                    defined[buffer.result(i)] = aDefined;
+                    op = OP_MOV;
+                }
+                case RET -> op = aDefined ? OP_RET : OP_RET_NONE;
+                case ADD, SUB, MUL -> {
+                    if (!aDefined || !bDefined) {
+                        code[at] = OP_UNDEFINED;
+                        code[at + 2] = aDefined ? b : a;
+                        count++;
+                        continue;
+                    }
+                    defined[buffer.result(i)] = true;
+                    op = kind == InstructionKind.ADD ? OP_ADD : kind == InstructionKind.SUB ? OP_SUB : OP_MUL;
+                }
+                default -> throw new RuntimeException("Unknown instruction kind: " + kind);
+            }
+
+            code[at] = op;
+            code[at + 1] = buffer.result(i);
+            code[at + 2] = a;
+            code[at + 3] = b;
+            count++;
+        }
+
+        final var registers = new int[variableCount + constantSlots.size()];
+        constantSlots.forEach((value, slot) -> registers[slot] = value);
+        return new RegisterEmulator(buffer, code, count, registers);
+    }
+
+    /**
+     * 在一个新的寄存器堆上执行全部指令
+     *
+     * @return 最后一条 RET 指令的返回值, 没有 RET 或返回了未赋值的变量时为空
+     */
+    public Optional<Integer> execute() {
+        final var registers = initialRegisters.clone();
+        final var code = this.code;
+        var hasReturn = false;
+        var returnValue = 0;
+
+        for (int at = 0, end = instructionCount * WIDTH; at < end; at += WIDTH) {
+            switch (code[at]) {
+                case OP_MOV -> registers[code[at + 1]] = registers[code[at + 2]];
+                case OP_ADD -> registers[code[at + 1]] = registers[code[at + 2]] + registers[code[at + 3]];
+                case OP_SUB -> registers[code[at + 1]] = registers[code[at + 2]] - registers[code[at + 3]];
+                case OP_MUL -> registers[code[at + 1]] = registers[code[at + 2]] * registers[code[at + 3]];
+                case OP_RET -> {
+                    hasReturn = true;
+                    returnValue = registers[code[at + 2]];
+                }
+                case OP_RET_NONE -> hasReturn = false;
+                case OP_UNDEFINED -> throw new RuntimeException(
+                    "Variable %s used before assignment".formatted(buffer.variable(code[at + 2])));
+                default -> throw new RuntimeException("Unknown opcode: " + code[at]);
+            }
+        }
+
+        return hasReturn ? Optional.of(returnValue) : Optional.empty();
+    }
+
+    /**
+     * 在一个新的寄存器堆上执行全部指令, 并将执行的指令与变量的读写计入 profile
+     *
+     * @param profile 记录计数的对象, 可以在多次执行之间累计
+     * @return 与 {@link #execute()} 相同
+     */
+    public Optional<Integer> execute(EmulatorProfile profile) {
+        profile.attach(buffer);
+        final var registers = initialRegisters.clone();
+        var hasReturn = false;
+        var returnValue = 0;
+
+        for (int i = 0; i < instructionCount; i++) {
+            final var at = i * WIDTH;
+            profile.executed(i);
+            final var kind = buffer.kind(i);
+            if (!buffer.isImmediateA(i)) {
+                profile.read(buffer.operandA(i));
+            }
+            if (kind.isBinary() && !buffer.isImmediateB(i)) {
+                profile.read(buffer.operandB(i));
+            }
+
+            switch (code[at]) {
+                case OP_MOV -> registers[code[at + 1]] = registers[code[at + 2]];
+                case OP_ADD -> registers[code[at + 1]] = registers[code[at + 2]] + registers[code[at + 3]];
+                case OP_SUB -> registers[code[at + 1]] = registers[code[at + 2]] - registers[code[at + 3]];
+                case OP_MUL -> registers[code[at + 1]] = registers[code[at + 2]] * registers[code[at + 3]];
+                case OP_RET -> {
+                    hasReturn = true;
+                    returnValue = registers[code[at + 2]];
+                }
+                case OP_RET_NONE -> hasReturn = false;
+                case OP_UNDEFINED -> throw new RuntimeException(
+                    "Variable %s used before assignment".formatted(buffer.variable(code[at + 2])));
+                default -> throw new RuntimeException("Unknown opcode: " + code[at]);
+            }
+
+            if (kind.hasResult()) {
+                profile.written(buffer.result(i));
+            }
+        }
+
+        profile.finished();
+        return hasReturn ? Optional.of(returnValue) : Optional.empty();
+    }
+
+    /**
+     * @return 译码后的指令数
+     */
+    public int instructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * @return 寄存器堆的大小, 即变量数与不同常量数之和
+     */
+    public int registerCount() {
+        return initialRegisters.length;
+    }
+
+    /**
+     * @return 变量槽的个数, 编号不小于它的槽都是常量槽
+     */
+    int variableCount() {
+        return variableCount;
+    }
+
+    /**
+     * @return 译码后的指令, 供同一包中的其它执行方式使用, 不可修改
+     */
+    int[] code() {
+        return code;
+    }
+
+    /**
+     * @return 执行前的寄存器堆 (常量槽已填好), 不可修改
+     */
+    int[] initialRegisters() {
+        return initialRegisters;
+    }
+}